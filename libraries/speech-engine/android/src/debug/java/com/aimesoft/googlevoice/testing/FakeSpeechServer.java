@@ -0,0 +1,379 @@
+package com.aimesoft.googlevoice.testing;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.SpeechClientPool;
+import com.aimesoft.googlevoice.SpeechMethods;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeRequest;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.protobuf.Duration;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * In-process stand-in for the Google Cloud Speech {@code StreamingRecognize} and
+ * {@code Recognize} methods, so that
+ * recognition sessions can be run and timed without network access or an api key. Pass
+ * {@link #endpoint()} as the {@code SPEECH_ENDPOINT} option to use it.
+ * <p>
+ * Responses are driven by the amount of audio received: an interim result every
+ * {@link Config.Builder#interimIntervalMillis(int) interim interval} and a final result
+ * every {@link Config.Builder#finalIntervalMillis(int) final interval} of audio, each sent
+ * after the {@link Config.Builder#responseDelayMillis(int) response delay}. {@code Recognize}
+ * answers one final result per final interval of audio after the same delay.
+ */
+public class FakeSpeechServer {
+    private final String name;
+    private final Config config;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "fake-speech-server");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicInteger streamCount = new AtomicInteger();
+    private final AtomicLong audioBytes = new AtomicLong();
+    private Server server;
+
+    public FakeSpeechServer(@NonNull String name, @NonNull Config config) {
+        this.name = name;
+        this.config = config;
+    }
+
+    public synchronized FakeSpeechServer start() throws IOException {
+        ServerServiceDefinition service = ServerServiceDefinition.builder(SpeechMethods.SERVICE_NAME)
+                .addMethod(SpeechMethods.STREAMING_RECOGNIZE, ServerCalls.asyncBidiStreamingCall(
+                        new ServerCalls.BidiStreamingMethod<StreamingRecognizeRequest, StreamingRecognizeResponse>() {
+                            @Override
+                            public StreamObserver<StreamingRecognizeRequest> invoke(StreamObserver<StreamingRecognizeResponse> responseObserver) {
+                                streamCount.incrementAndGet();
+                                return new RecognizeCall(responseObserver);
+                            }
+                        }))
+                .addMethod(SpeechMethods.RECOGNIZE, ServerCalls.asyncUnaryCall(
+                        new ServerCalls.UnaryMethod<RecognizeRequest, RecognizeResponse>() {
+                            @Override
+                            public void invoke(RecognizeRequest request, StreamObserver<RecognizeResponse> responseObserver) {
+                                recognize(request, responseObserver);
+                            }
+                        }))
+                .build();
+        server = InProcessServerBuilder.forName(name).addService(service).build().start();
+        return this;
+    }
+
+    public synchronized void shutdown() {
+        if (server != null) {
+            server.shutdownNow();
+            server = null;
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the endpoint to pass to {@link SpeechClientPool}
+     */
+    @NonNull
+    public String endpoint() {
+        return SpeechClientPool.IN_PROCESS_PREFIX + name;
+    }
+
+    public int streamCount() {
+        return streamCount.get();
+    }
+
+    public long audioBytesReceived() {
+        return audioBytes.get();
+    }
+
+    private void recognize(@NonNull RecognizeRequest request, @NonNull final StreamObserver<RecognizeResponse> responses) {
+        RecognitionConfig recognitionConfig = request.getConfig();
+        int size = request.getAudio().getContent().size();
+        audioBytes.addAndGet(size);
+        long bytesPerSecond = (long) Math.max(1, recognitionConfig.getSampleRateHertz())
+                * Math.max(1, recognitionConfig.getAudioChannelCount()) * 2;
+        long audioMillis = size * 1000 / bytesPerSecond;
+        final Status error = config.errorAfterMillis > 0 && audioMillis >= config.errorAfterMillis
+                ? config.errorStatus.withDescription("Injected error") : null;
+        long utterances = config.finalIntervalMillis > 0 ? (audioMillis + config.finalIntervalMillis - 1) / config.finalIntervalMillis : 1;
+        RecognizeResponse.Builder response = RecognizeResponse.newBuilder();
+        for (long i = 0; i < utterances && audioMillis > 0; i++) {
+            response.addResults(SpeechRecognitionResult.newBuilder()
+                    .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                            .setTranscript(config.transcript)
+                            .setConfidence(0.9f)));
+        }
+        final RecognizeResponse result = response.build();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    responses.onError(error.asRuntimeException());
+                } else {
+                    responses.onNext(result);
+                    responses.onCompleted();
+                }
+            }
+        }, config.responseDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private class RecognizeCall implements StreamObserver<StreamingRecognizeRequest> {
+        private final StreamObserver<StreamingRecognizeResponse> responses;
+        private final long startTime = System.nanoTime();
+        private boolean linear16 = true;
+        private int bytesPerSecond = 16000 * 2;
+        private boolean interimResults = true;
+        private long streamBytes;
+        private long utteranceStart;
+        private long lastInterim;
+        private boolean done;
+
+        RecognizeCall(@NonNull StreamObserver<StreamingRecognizeResponse> responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public synchronized void onNext(StreamingRecognizeRequest request) {
+            if (done) {
+                return;
+            }
+            if (request.hasStreamingConfig()) {
+                RecognitionConfig recognitionConfig = request.getStreamingConfig().getConfig();
+                linear16 = recognitionConfig.getEncoding() == RecognitionConfig.AudioEncoding.LINEAR16;
+                bytesPerSecond = Math.max(1, recognitionConfig.getSampleRateHertz())
+                        * Math.max(1, recognitionConfig.getAudioChannelCount()) * 2;
+                interimResults = request.getStreamingConfig().getInterimResults();
+                return;
+            }
+            int size = request.getAudioContent().size();
+            streamBytes += size;
+            audioBytes.addAndGet(size);
+            long audioMillis = audioMillis();
+            if (config.errorAfterMillis > 0 && audioMillis >= config.errorAfterMillis) {
+                fail(config.errorStatus.withDescription("Injected error"));
+                return;
+            }
+            if (config.maxStreamDurationMillis > 0 && audioMillis >= config.maxStreamDurationMillis) {
+                fail(Status.OUT_OF_RANGE.withDescription("Exceeded maximum allowed stream duration of "
+                        + config.maxStreamDurationMillis / 1000 + " seconds."));
+                return;
+            }
+            if (config.finalIntervalMillis > 0 && audioMillis - utteranceStart >= config.finalIntervalMillis) {
+                send(result(words(config.finalIntervalMillis), true, audioMillis));
+                utteranceStart = audioMillis;
+                lastInterim = audioMillis;
+            } else if (interimResults && config.interimIntervalMillis > 0
+                    && audioMillis - lastInterim >= config.interimIntervalMillis) {
+                send(result(words(audioMillis - utteranceStart), false, audioMillis));
+                lastInterim = audioMillis;
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            done = true;
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (done) {
+                return;
+            }
+            done = true;
+            final long audioMillis = audioMillis();
+            if (audioMillis > utteranceStart) {
+                send(result(words(audioMillis - utteranceStart), true, audioMillis));
+            }
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    responses.onCompleted();
+                }
+            });
+        }
+
+        private long audioMillis() {
+            if (!linear16) {
+                // compressed audio, use the time since the stream opened instead
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            }
+            return streamBytes * 1000 / bytesPerSecond;
+        }
+
+        /**
+         * @return the words of the transcript spoken after {@code millis} of an utterance
+         */
+        @NonNull
+        private String words(long millis) {
+            List<String> words = config.words;
+            long fraction = config.finalIntervalMillis > 0 ? millis * words.size() / config.finalIntervalMillis : words.size();
+            int count = (int) Math.max(1, Math.min(words.size(), fraction));
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    s.append(' ');
+                }
+                s.append(words.get(i));
+            }
+            return s.toString();
+        }
+
+        @NonNull
+        private StreamingRecognizeResponse result(@NonNull String transcript, boolean isFinal, long endMillis) {
+            return StreamingRecognizeResponse.newBuilder()
+                    .addResults(StreamingRecognitionResult.newBuilder()
+                            .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                                    .setTranscript(transcript)
+                                    .setConfidence(isFinal ? 0.9f : 0f))
+                            .setIsFinal(isFinal)
+                            .setStability(isFinal ? 0f : 0.9f)
+                            .setResultEndTime(Duration.newBuilder()
+                                    .setSeconds(endMillis / 1000)
+                                    .setNanos((int) (endMillis % 1000) * 1000000)))
+                    .build();
+        }
+
+        private void fail(@NonNull final Status status) {
+            done = true;
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    responses.onError(status.asRuntimeException());
+                }
+            });
+        }
+
+        private void send(@NonNull final StreamingRecognizeResponse response) {
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    responses.onNext(response);
+                }
+            });
+        }
+
+        /**
+         * Responses share the same delay on a single thread, so they keep their order.
+         */
+        private void schedule(@NonNull final Runnable task) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ignored) {
+                        // the client cancelled the call
+                    }
+                }
+            }, config.responseDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static class Config {
+        private int responseDelayMillis;
+        private int interimIntervalMillis;
+        private int finalIntervalMillis;
+        private int errorAfterMillis;
+        private Status errorStatus;
+        private int maxStreamDurationMillis;
+        private String transcript;
+        private List<String> words;
+
+        public static class Builder {
+            private int responseDelayMillis = 100;
+            private int interimIntervalMillis = 300;
+            private int finalIntervalMillis = 3000;
+            private int errorAfterMillis = 0;
+            private Status errorStatus = Status.UNAVAILABLE;
+            private int maxStreamDurationMillis = 305000;
+            private String transcript = "the quick brown fox jumps over the lazy dog";
+
+            /**
+             * Time between receiving the audio and sending the response for it.
+             */
+            public Builder responseDelayMillis(int responseDelayMillis) {
+                this.responseDelayMillis = Math.max(0, responseDelayMillis);
+                return this;
+            }
+
+            /**
+             * Audio between interim results, 0 to send none.
+             */
+            public Builder interimIntervalMillis(int interimIntervalMillis) {
+                this.interimIntervalMillis = Math.max(0, interimIntervalMillis);
+                return this;
+            }
+
+            /**
+             * Audio per utterance, ended by a final result. 0 sends a final result only when the
+             * client closes the stream.
+             */
+            public Builder finalIntervalMillis(int finalIntervalMillis) {
+                this.finalIntervalMillis = Math.max(0, finalIntervalMillis);
+                return this;
+            }
+
+            /**
+             * Fails every stream with {@code status} after this much audio, 0 never fails.
+             */
+            public Builder errorAfterMillis(int errorAfterMillis, @NonNull Status status) {
+                this.errorAfterMillis = Math.max(0, errorAfterMillis);
+                this.errorStatus = status;
+                return this;
+            }
+
+            /**
+             * Audio after which a stream fails with {@code OUT_OF_RANGE}, like the real service.
+             * 0 for no limit.
+             */
+            public Builder maxStreamDurationMillis(int maxStreamDurationMillis) {
+                this.maxStreamDurationMillis = Math.max(0, maxStreamDurationMillis);
+                return this;
+            }
+
+            /**
+             * Text of every utterance, revealed word by word in interim results.
+             */
+            public Builder transcript(@NonNull String transcript) {
+                this.transcript = transcript;
+                return this;
+            }
+
+            public Config build() {
+                Config c = new Config();
+                c.responseDelayMillis = responseDelayMillis;
+                c.interimIntervalMillis = interimIntervalMillis;
+                c.finalIntervalMillis = finalIntervalMillis;
+                c.errorAfterMillis = errorAfterMillis;
+                c.errorStatus = errorStatus;
+                c.maxStreamDurationMillis = maxStreamDurationMillis;
+                c.transcript = transcript.trim();
+                c.words = Arrays.asList(c.transcript.split("\\s+"));
+                return c;
+            }
+        }
+    }
+}
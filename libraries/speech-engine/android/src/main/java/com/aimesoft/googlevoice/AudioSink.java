@@ -0,0 +1,14 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of recognition audio, usually one recognition stream.
+ */
+interface AudioSink {
+    void send(byte[] buffer, int offset, int length);
+
+    void send(@NonNull ByteBuffer buffer);
+}
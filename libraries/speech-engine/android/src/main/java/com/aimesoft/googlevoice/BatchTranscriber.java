@@ -0,0 +1,350 @@
+package com.aimesoft.googlevoice;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.aimesoft.googlevoice.audio.FileAudioStream;
+import com.aimesoft.googlevoice.audio.SilenceSplitter;
+import com.aimesoft.googlevoice.audio.WavAudioStream;
+import com.google.cloud.speech.v1.RecognitionAudio;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transcribes stored recordings. Every file is cut at silences into segments short enough
+ * for a synchronous {@code Recognize} call, the segments of all files are recognized
+ * concurrently over the pooled client and the results are joined back per file, in order.
+ */
+public class BatchTranscriber {
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_SEGMENT_MILLIS = 50000;
+    public static final int DEFAULT_SILENCE_SEARCH_MILLIS = 5000;
+    // synchronous recognition accepts up to 10 MB of audio
+    private static final int MAX_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    public interface Listener {
+        /**
+         * A segment of the file is done, successfully or not.
+         */
+        void onProgress(int fileIndex, @NonNull String path, int completedSegments, int totalSegments);
+
+        void onFileTranscribed(int fileIndex, @NonNull String path, @NonNull String transcript);
+
+        void onFileError(int fileIndex, @NonNull String path, @NonNull Throwable error);
+
+        /**
+         * Every file is done, or the batch was cancelled.
+         */
+        void onFinished();
+    }
+
+    private final Context context;
+    private final Options options;
+    private final Listener listener;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger remainingFiles = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private boolean started;
+    private SpeechClient client;
+
+    public BatchTranscriber(@NonNull Context context, @NonNull Options options, @NonNull Listener listener) {
+        this.context = context.getApplicationContext();
+        this.options = options;
+        this.listener = listener;
+        this.executor = new ThreadPoolExecutor(options.maxConcurrency, options.maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "speech-batch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) {
+            @Override
+            protected void terminated() {
+                // after a cancel, the client is released once the running segments are done with it
+                finish();
+            }
+        };
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts transcribing the files in the background. The client is acquired on a worker
+     * thread, and a failure to create it is reported as an error of every file. Results are
+     * reported to the listener on the worker threads.
+     */
+    public synchronized void start(@NonNull final List<String> paths) {
+        if (started) {
+            throw new IllegalStateException("already started");
+        }
+        started = true;
+        remainingFiles.set(paths.size());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                begin(paths);
+            }
+        });
+    }
+
+    /**
+     * Drops the segments not started yet and reports {@link Listener#onFinished()} once the
+     * running ones have returned. Their results are not reported.
+     */
+    public void cancel() {
+        cancelled = true;
+        executor.shutdownNow();
+    }
+
+    private void begin(@NonNull List<String> paths) {
+        if (paths.isEmpty()) {
+            finish();
+            return;
+        }
+        try {
+            SpeechClient acquired = SpeechClientPool.getInstance().acquire(context, options.apiKey, options.endpoint);
+            synchronized (this) {
+                client = acquired;
+            }
+        } catch (IOException e) {
+            Log.w("ASR", "cannot create the speech client", e);
+            for (int i = 0; i < paths.size(); i++) {
+                onFileDone(new FileJob(i, paths.get(i)), e);
+            }
+            return;
+        }
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                final FileJob job = new FileJob(i, paths.get(i));
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        split(job);
+                    }
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            // cancelled, the executor finishes once it terminates
+        }
+    }
+
+    private void split(@NonNull final FileJob job) {
+        List<ByteBuffer> segments;
+        FileAudioStream stream;
+        try {
+            stream = openStream(new File(job.path));
+            SilenceSplitter splitter = new SilenceSplitter(stream.sampleRate(), stream.channels(),
+                    maxSegmentMillis(stream), options.silenceSearchMillis);
+            segments = splitter.split(stream.map());
+        } catch (IOException | RuntimeException e) {
+            onFileDone(job, e);
+            return;
+        }
+        job.transcripts = new String[segments.size()];
+        job.remainingSegments.set(segments.size());
+        if (segments.isEmpty()) {
+            onFileDone(job, null);
+            return;
+        }
+        final RecognitionConfig config = RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+                .setSampleRateHertz(stream.sampleRate())
+                .setAudioChannelCount(stream.channels())
+                .setLanguageCode(options.language)
+                .build();
+        for (int i = 0; i < segments.size(); i++) {
+            final int index = i;
+            final ByteBuffer segment = segments.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recognize(job, index, config, segment);
+                }
+            });
+        }
+    }
+
+    private void recognize(@NonNull FileJob job, int index, @NonNull RecognitionConfig config, @NonNull ByteBuffer segment) {
+        if (job.error == null) {
+            try {
+                // the mapping is read only, so it can be sent without a copy
+                RecognitionAudio audio = RecognitionAudio.newBuilder()
+                        .setContent(UnsafeByteOperations.unsafeWrap(segment))
+                        .build();
+                RecognizeResponse response = client.recognize(config, audio);
+                StringBuilder text = new StringBuilder();
+                for (SpeechRecognitionResult result : response.getResultsList()) {
+                    if (result.getAlternativesCount() > 0) {
+                        if (text.length() > 0) {
+                            text.append(options.separator);
+                        }
+                        text.append(result.getAlternatives(0).getTranscript().trim());
+                    }
+                }
+                job.transcripts[index] = text.toString();
+            } catch (RuntimeException e) {
+                Log.w("ASR", "segment " + index + " of " + job.path + " failed", e);
+                job.error = e;
+            }
+        }
+        int remaining = job.remainingSegments.decrementAndGet();
+        if (cancelled || finished.get()) {
+            return;
+        }
+        listener.onProgress(job.index, job.path, job.transcripts.length - remaining, job.transcripts.length);
+        if (remaining == 0) {
+            onFileDone(job, job.error);
+        }
+    }
+
+    private void onFileDone(@NonNull FileJob job, @Nullable Throwable error) {
+        if (cancelled || finished.get()) {
+            return;
+        }
+        if (error != null) {
+            listener.onFileError(job.index, job.path, error);
+        } else {
+            listener.onFileTranscribed(job.index, job.path, GoogleCloudVoice.joinString(options.separator, job.transcripts));
+        }
+        if (remainingFiles.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        executor.shutdown();
+        synchronized (this) {
+            if (client != null) {
+                SpeechClientPool.getInstance().release(options.apiKey, options.endpoint);
+            }
+        }
+        listener.onFinished();
+    }
+
+    private int maxSegmentMillis(@NonNull FileAudioStream stream) {
+        int bytesPerSecond = stream.sampleRate() * stream.channels() * 2;
+        return (int) Math.min(options.maxSegmentMillis, (long) MAX_SEGMENT_BYTES * 1000 / bytesPerSecond);
+    }
+
+    /**
+     * WAV files are read with the format in their header, other files as raw 16 kHz mono PCM.
+     */
+    @NonNull
+    private static FileAudioStream openStream(@NonNull File file) throws IOException {
+        if (file.getName().toLowerCase(Locale.US).endsWith(".wav")) {
+            return WavAudioStream.open(file, false);
+        }
+        return new FileAudioStream(file, GoogleCloudVoice.RECOGNITION_SAMPLE_RATE, GoogleCloudVoice.RECOGNITION_AUDIO_CHANNELS, false);
+    }
+
+    private static class FileJob {
+        private final int index;
+        private final String path;
+        private final AtomicInteger remainingSegments = new AtomicInteger();
+        private String[] transcripts;
+        private volatile Throwable error;
+
+        FileJob(int index, @NonNull String path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    public static class Options {
+        private String apiKey;
+        private String language;
+        private String endpoint;
+        private String separator;
+        private int maxConcurrency;
+        private int maxSegmentMillis;
+        private int silenceSearchMillis;
+
+        public static class Builder {
+            private final String apiKey;
+            private String language = "en-US";
+            private String endpoint;
+            private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+            private int maxSegmentMillis = DEFAULT_MAX_SEGMENT_MILLIS;
+            private int silenceSearchMillis = DEFAULT_SILENCE_SEARCH_MILLIS;
+
+            public Builder(@NonNull String apiKey) {
+                this.apiKey = apiKey;
+            }
+
+            public Builder language(@NonNull String language) {
+                this.language = language;
+                return this;
+            }
+
+            /**
+             * Overrides the Speech endpoint, see {@link SpeechClientPool}.
+             */
+            public Builder endpoint(@Nullable String endpoint) {
+                this.endpoint = endpoint;
+                return this;
+            }
+
+            /**
+             * Segments recognized at the same time, over all files.
+             */
+            public Builder maxConcurrency(int maxConcurrency) {
+                this.maxConcurrency = Math.max(1, maxConcurrency);
+                return this;
+            }
+
+            /**
+             * Longest segment sent in one request, at most about a minute.
+             */
+            public Builder maxSegmentMillis(int maxSegmentMillis) {
+                this.maxSegmentMillis = Math.max(1000, Math.min(59000, maxSegmentMillis));
+                return this;
+            }
+
+            /**
+             * How far back from the longest segment to look for a silence to cut at.
+             */
+            public Builder silenceSearchMillis(int silenceSearchMillis) {
+                this.silenceSearchMillis = Math.max(0, silenceSearchMillis);
+                return this;
+            }
+
+            public Options build() {
+                Options o = new Options();
+                o.apiKey = apiKey;
+                o.language = language;
+                o.endpoint = endpoint;
+                o.separator = GoogleCloudVoice.wordSeparator(language);
+                o.maxConcurrency = maxConcurrency;
+                o.maxSegmentMillis = maxSegmentMillis;
+                o.silenceSearchMillis = silenceSearchMillis;
+                return o;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.aimesoft.googlevoice;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the duration of the audio chunks sent to the recognition stream from how the link
+ * behaves. Chunks shrink towards the minimum while sends are quick and results keep up with
+ * the audio, so partial results come sooner, and grow towards the maximum when sends take
+ * long, flow control holds them back or results fall behind, so fewer messages are sent.
+ * <p>
+ * Sends are reported by the recognition thread and responses by the gRPC thread.
+ */
+class ChunkSizer {
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int STEP_MILLIS = 10;
+    /**
+     * Results lagging the sent audio by less than this count as keeping up.
+     */
+    private static final long LAG_LOW_MILLIS = 400;
+    /**
+     * Results lagging the sent audio by more than this count as falling behind.
+     */
+    private static final long LAG_HIGH_MILLIS = 1000;
+    private static final double SEND_SHARE_LOW = 0.1;
+    private static final double SEND_SHARE_HIGH = 0.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final int bytesPerSecond;
+    private final int frameBytes;
+    private final int minMillis;
+    private final int maxMillis;
+    private int chunkMillis;
+
+    private double sendNanos = -1;
+    private double lagMillis = -1;
+    private boolean backlogged;
+    private long lastAdjust = System.nanoTime();
+
+    ChunkSizer(int sampleRate, int channels, int minMillis, int maxMillis, int initialMillis) {
+        this.frameBytes = channels * 2;
+        this.bytesPerSecond = sampleRate * frameBytes;
+        this.minMillis = minMillis;
+        this.maxMillis = Math.max(minMillis, maxMillis);
+        this.chunkMillis = Math.min(this.maxMillis, Math.max(minMillis, initialMillis));
+    }
+
+    int minChunkBytes() {
+        return toBytes(minMillis);
+    }
+
+    int maxChunkBytes() {
+        return toBytes(maxMillis);
+    }
+
+    /**
+     * @return the size of the next chunk, after adjusting it at most once per second
+     */
+    int nextChunkBytes() {
+        return nextChunkBytes(System.nanoTime());
+    }
+
+    synchronized int nextChunkBytes(long now) {
+        if (minMillis < maxMillis && now - lastAdjust >= ADJUST_INTERVAL_NANOS) {
+            lastAdjust = now;
+            adjust();
+        }
+        return toBytes(chunkMillis);
+    }
+
+    /**
+     * @param nanos      how long {@code ClientStream.send} took
+     * @param backlogged whether flow control was holding messages back before the send
+     */
+    synchronized void onSend(long nanos, boolean backlogged) {
+        sendNanos = sendNanos < 0 ? nanos : sendNanos + SMOOTHING * (nanos - sendNanos);
+        this.backlogged |= backlogged;
+    }
+
+    /**
+     * @param lagMillis audio sent to the stream minus the end time of the result received
+     */
+    synchronized void onResponse(long lagMillis) {
+        this.lagMillis = this.lagMillis < 0 ? lagMillis : this.lagMillis + SMOOTHING * (lagMillis - this.lagMillis);
+    }
+
+    private void adjust() {
+        double sendShare = sendNanos < 0 ? 0 : sendNanos / TimeUnit.MILLISECONDS.toNanos(chunkMillis);
+        int next = chunkMillis;
+        if (backlogged || sendShare > SEND_SHARE_HIGH || lagMillis > LAG_HIGH_MILLIS) {
+            next = Math.min(maxMillis, roundUp(chunkMillis * 3 / 2));
+        } else if (sendShare < SEND_SHARE_LOW && lagMillis >= 0 && lagMillis < LAG_LOW_MILLIS) {
+            // rounding up could keep a small chunk from ever shrinking
+            next = Math.max(minMillis, roundDown(chunkMillis * 3 / 4));
+        }
+        backlogged = false;
+        if (next != chunkMillis) {
+            Log.d("ASR", "chunk " + chunkMillis + " -> " + next + " ms, send " + Math.round(sendShare * 100)
+                    + "% of chunk, result lag " + Math.round(lagMillis) + " ms");
+            chunkMillis = next;
+        }
+    }
+
+    private static int roundUp(int millis) {
+        return (millis + STEP_MILLIS - 1) / STEP_MILLIS * STEP_MILLIS;
+    }
+
+    private static int roundDown(int millis) {
+        return millis / STEP_MILLIS * STEP_MILLIS;
+    }
+
+    private int toBytes(int millis) {
+        int bytes = (int) ((long) bytesPerSecond * millis / 1000);
+        return Math.max(frameBytes, bytes - bytes % frameBytes);
+    }
+}
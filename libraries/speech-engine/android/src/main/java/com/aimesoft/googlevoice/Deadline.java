@@ -0,0 +1,93 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cancellable deadline that can be pushed back many times per second. Pushing it later only
+ * stores the new time; the pending check notices when it wakes up and schedules itself again.
+ */
+class Deadline {
+    interface Callback {
+        /**
+         * @param latenessNanos how long after the deadline the callback runs
+         * @param idleNanos     time since the deadline was last armed
+         */
+        void onExpired(long latenessNanos, long idleNanos);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Callback callback;
+    private long deadline;
+    private long armedAt;
+    private long checkAt;
+    private int generation;
+    private ScheduledFuture<?> future;
+
+    Deadline(@NonNull ScheduledExecutorService scheduler, @NonNull Callback callback) {
+        this.scheduler = scheduler;
+        this.callback = callback;
+    }
+
+    /**
+     * Sets the deadline to {@code delay} from now, replacing the previous one.
+     */
+    synchronized void arm(long delay, @NonNull TimeUnit unit) {
+        long now = System.nanoTime();
+        armedAt = now;
+        deadline = now + unit.toNanos(delay);
+        if (future == null || deadline < checkAt) {
+            // not armed, or the pending check would be too late
+            schedule(deadline - now);
+        }
+    }
+
+    synchronized void cancel() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        generation++;
+    }
+
+    synchronized boolean isArmed() {
+        return future != null;
+    }
+
+    private void schedule(long delayNanos) {
+        if (future != null) {
+            future.cancel(false);
+        }
+        final int scheduled = ++generation;
+        checkAt = System.nanoTime() + delayNanos;
+        future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check(scheduled);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void check(int scheduled) {
+        long now = System.nanoTime();
+        long lateness;
+        long idle;
+        synchronized (this) {
+            if (scheduled != generation) {
+                return; // cancelled or replaced
+            }
+            if (now < deadline) {
+                future = null;
+                schedule(deadline - now);
+                return;
+            }
+            future = null;
+            lateness = now - deadline;
+            idle = now - armedAt;
+        }
+        callback.onExpired(lateness, idle);
+    }
+}
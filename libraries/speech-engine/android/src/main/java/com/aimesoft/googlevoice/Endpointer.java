@@ -0,0 +1,64 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.audio.VoiceActivityDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects the end of an utterance on the device: speech followed by a run of silence of a
+ * given length. Audio is classified in short frames and silence is counted in audio time, so
+ * the end is found within a frame of the threshold whatever the chunk size.
+ */
+class Endpointer {
+    private static final int FRAME_MILLIS = 20;
+
+    private final VoiceActivityDetector detector;
+    private final int frameBytes;
+    private final long trailingSilenceBytes;
+
+    private boolean speechHeard;
+    private long silenceBytes;
+    private boolean ended;
+
+    Endpointer(@NonNull VoiceActivityDetector detector, int sampleRate, int channels, int trailingSilenceMillis) {
+        this.detector = detector;
+        int bytes = sampleRate * channels * 2 * FRAME_MILLIS / 1000;
+        this.frameBytes = Math.max(channels * 2, bytes - bytes % (channels * 2));
+        this.trailingSilenceBytes = (long) sampleRate * channels * 2 * trailingSilenceMillis / 1000;
+        detector.reset();
+    }
+
+    /**
+     * Classifies the remaining bytes of the buffer without changing its position.
+     *
+     * @return true the first time the trailing silence after speech is reached
+     */
+    boolean process(@NonNull ByteBuffer buffer) {
+        if (ended) {
+            return false;
+        }
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            for (int start = position; start < limit; start += frameBytes) {
+                int end = Math.min(limit, start + frameBytes);
+                buffer.limit(end).position(start);
+                if (detector.isSpeech(buffer)) {
+                    speechHeard = true;
+                    silenceBytes = 0;
+                } else if (speechHeard) {
+                    silenceBytes += end - start;
+                    if (silenceBytes >= trailingSilenceBytes) {
+                        ended = true;
+                        return true;
+                    }
+                }
+            }
+        } finally {
+            buffer.limit(limit).position(position);
+        }
+        return false;
+    }
+}
@@ -6,33 +6,45 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.aimesoft.googlevoice.audio.AudioBufferPool;
+import com.aimesoft.googlevoice.audio.AudioCaptureThread;
+import com.aimesoft.googlevoice.audio.AudioRingBuffer;
+import com.aimesoft.googlevoice.audio.AudioSpool;
 import com.aimesoft.googlevoice.audio.AudioStream;
-import com.aimesoft.googlevoice.audio.AudioUtils;
+import com.aimesoft.googlevoice.audio.CarryOverBuffer;
+import com.aimesoft.googlevoice.audio.EnergyVoiceActivityDetector;
+import com.aimesoft.googlevoice.audio.FileAudioStream;
+import com.aimesoft.googlevoice.audio.LevelMeter;
 import com.aimesoft.googlevoice.audio.MicrophoneAudioStream;
+import com.aimesoft.googlevoice.audio.VoiceActivityDetector;
+import com.aimesoft.googlevoice.audio.WavAudioStream;
+import com.aimesoft.googlevoice.codec.AudioEncoder;
+import com.aimesoft.googlevoice.codec.AudioEncoders;
 import com.aimesoft.googlevoice.utils.SignatureUtils;
-import com.google.api.gax.core.FixedCredentialsProvider;
-import com.google.api.gax.rpc.ClientStream;
-import com.google.api.gax.rpc.HeaderProvider;
-import com.google.api.gax.rpc.ResponseObserver;
-import com.google.api.gax.rpc.StreamController;
-import com.google.auth.Credentials;
 import com.google.cloud.speech.v1.*;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+
 public class GoogleCloudVoice implements SpeechRecognizer {
 
     public static final int RECOGNITION_SAMPLE_RATE = 16000;
@@ -40,13 +52,36 @@ public class GoogleCloudVoice implements SpeechRecognizer {
     private static final long FIRST_DELAY = TimeUnit.SECONDS.toMillis(15);
     private static final long LISTENING_DELAY = TimeUnit.SECONDS.toMillis(10);
     private static final long MAX_RECOGNITION_SESSION_TIME = TimeUnit.SECONDS.toMillis(55);
+    private static final long ROLLOVER_LEAD_TIME = TimeUnit.SECONDS.toMillis(1);
+    private static final int DEFAULT_CARRY_OVER_MILLIS = 300;
+    private static final int DEFAULT_MIN_CHUNK_MILLIS = 100;
+    private static final int DEFAULT_MAX_CHUNK_MILLIS = 500;
+    private static final int INITIAL_CHUNK_MILLIS = 300;
+    private static final int DEFAULT_RECONNECT_ATTEMPTS = 5;
+    private static final int RECONNECT_JOURNAL_MILLIS = 15000;
+    private static final int DEFAULT_FINALIZE_TIMEOUT_MILLIS = 2000;
+    private static final int CAPTURE_BUFFER_MILLIS = 5000;
+    private static final long CAPTURE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int DEFAULT_VAD_HANGOVER_MILLIS = 600;
+    private static final int DEFAULT_VAD_PRE_ROLL_MILLIS = 300;
+    private static final int DEFAULT_VAD_KEEP_ALIVE_MILLIS = 2000;
+    private static final int LEVEL_WINDOW_MILLIS = 100;
+    private static final long SEND_READY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final SpeechMetrics METRICS = SpeechMetrics.getInstance();
+    private static final String SPOOL_DIRECTORY = "speech-spool";
 
     private final Context context;
     private RecognitionListener recognitionListener;
     private RecognitionThread recognitionThread;
+    private volatile AudioRingBuffer captureBuffer;
+    private AudioBufferPool bufferPool;
+    private VoiceActivityDetector voiceActivityDetector;
+    private MicrophoneAudioStream preparedRecorder;
 
     public GoogleCloudVoice(Context context) {
         this.context = context;
+        SignatureUtils.preload(context);
     }
 
     public static SpeechRecognizer create(Context context) {
@@ -72,22 +107,206 @@ public class GoogleCloudVoice implements SpeechRecognizer {
                 .maxAlternatives(intent.getIntExtra(RecognizerIntent.EXTRA_MAX_RESULTS, 1))
                 .autoStop(false)
                 .interimResults(intent.getBooleanExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true))
+                .wordTimeOffsets(intent.getBooleanExtra("WORD_TIME_OFFSETS", false))
+                .transcriptDeltas(intent.getBooleanExtra("TRANSCRIPT_DELTAS", false))
                 .language(intent.getStringExtra(RecognizerIntent.EXTRA_LANGUAGE))
                 .bufferOut(intent.getBooleanExtra("AUDIO_BUFFER_OUT", false))
                 .rmsDBOut(intent.getBooleanExtra("RMS_DB_OUT", false))
+                .gaplessRollover(intent.getBooleanExtra("GAPLESS_ROLLOVER", false))
+                .carryOverMillis(intent.getIntExtra("ROLLOVER_CARRY_OVER_MILLIS", DEFAULT_CARRY_OVER_MILLIS))
+                .minChunkMillis(intent.getIntExtra("MIN_CHUNK_MILLIS", DEFAULT_MIN_CHUNK_MILLIS))
+                .maxChunkMillis(intent.getIntExtra("MAX_CHUNK_MILLIS", DEFAULT_MAX_CHUNK_MILLIS))
+                .reconnectAttempts(intent.getIntExtra("RECONNECT_ATTEMPTS", DEFAULT_RECONNECT_ATTEMPTS))
+                .singleUtterance(intent.getBooleanExtra("SINGLE_UTTERANCE", false))
+                .endSilenceMillis(intent.getIntExtra("END_SILENCE_MILLIS", 0))
+                .finalizeTimeoutMillis(intent.getIntExtra("FINALIZE_TIMEOUT_MILLIS", DEFAULT_FINALIZE_TIMEOUT_MILLIS))
+                .voiceActivityDetection(intent.getBooleanExtra("VAD_ENABLED", false))
+                .vadThresholdDb(intent.getFloatExtra("VAD_THRESHOLD_DB", EnergyVoiceActivityDetector.DEFAULT_THRESHOLD_DB))
+                .vadHangoverMillis(intent.getIntExtra("VAD_HANGOVER_MILLIS", DEFAULT_VAD_HANGOVER_MILLIS))
+                .vadPreRollMillis(intent.getIntExtra("VAD_PRE_ROLL_MILLIS", DEFAULT_VAD_PRE_ROLL_MILLIS))
+                .vadKeepAliveMillis(intent.getIntExtra("VAD_KEEP_ALIVE_MILLIS", DEFAULT_VAD_KEEP_ALIVE_MILLIS))
+                .encoding(audioEncoding(intent.getStringExtra("AUDIO_ENCODING")))
+                .endpoint(intent.getStringExtra("SPEECH_ENDPOINT"))
+                .spool(intent.getBooleanExtra("SPOOL_ENABLED", false) && intent.getStringExtra("AUDIO_FILE") == null)
+                .spoolMaxBytes(intent.getLongExtra("SPOOL_MAX_BYTES", AudioSpool.DEFAULT_MAX_BYTES))
                 .build();
-        AudioStream micro = MicrophoneAudioStream.create(context, RECOGNITION_SAMPLE_RATE, RECOGNITION_AUDIO_CHANNELS);
-        recognitionThread = new RecognitionThread(request, micro);
+        AudioStream recorder;
+        String audioFile = intent.getStringExtra("AUDIO_FILE");
+        if (audioFile != null) {
+            try {
+                recorder = fileAudioStream(new File(audioFile), intent.getBooleanExtra("AUDIO_FILE_PACED", true));
+            } catch (IOException e) {
+                Log.w("ASR", "cannot play " + audioFile, e);
+                RecognitionListener listener = recognitionListener;
+                if (listener != null) {
+                    listener.onError(ERROR_AUDIO);
+                }
+                return;
+            }
+        } else {
+            recorder = takePreparedRecorder();
+            if (recorder == null) {
+                recorder = MicrophoneAudioStream.create(context, RECOGNITION_SAMPLE_RATE, RECOGNITION_AUDIO_CHANNELS);
+            }
+        }
+        startListening(request, recorder);
+    }
+
+    /**
+     * Starts a session with options and audio that do not come from an intent.
+     */
+    void startListening(@NonNull RecognitionRequest request, @NonNull AudioStream recorder) {
+        recognitionThread = new RecognitionThread(request, recorder);
         recognitionThread.start();
     }
 
+    /**
+     * WAV files are played with the format in their header, other files as raw 16 kHz mono PCM.
+     */
+    @NonNull
+    private static AudioStream fileAudioStream(@NonNull File file, boolean paced) throws IOException {
+        if (file.getName().toLowerCase(Locale.US).endsWith(".wav")) {
+            return WavAudioStream.open(file, paced);
+        }
+        return new FileAudioStream(file, RECOGNITION_SAMPLE_RATE, RECOGNITION_AUDIO_CHANNELS, paced);
+    }
+
+    @NonNull
+    private static RecognitionConfig.AudioEncoding audioEncoding(@Nullable String name) {
+        if ("OGG_OPUS".equals(name)) {
+            return RecognitionConfig.AudioEncoding.OGG_OPUS;
+        }
+        return RecognitionConfig.AudioEncoding.LINEAR16;
+    }
+
     private String defaultApiKey() {
+        return defaultApiKey(context);
+    }
+
+    /**
+     * @return the api key saved in the app preferences, or null
+     */
+    @Nullable
+    public static String defaultApiKey(@NonNull Context context) {
         SharedPreferences preferences = context.getSharedPreferences("google", Context.MODE_PRIVATE);
         return preferences.getString("google_api_key", null);
     }
 
+    /**
+     * @return the spool that microphone sessions started with {@code SPOOL_ENABLED} write to
+     */
+    @NonNull
+    public static AudioSpool audioSpool(@NonNull Context context, long maxBytes) {
+        return new AudioSpool(new File(context.getFilesDir(), SPOOL_DIRECTORY), maxBytes,
+                AudioSpool.DEFAULT_SEGMENT_MILLIS);
+    }
+
     public void destroy() {
         cancel();
+        MicrophoneAudioStream recorder = takePreparedRecorder();
+        if (recorder != null) {
+            recorder.release();
+        }
+    }
+
+    /**
+     * Loads the api key, creates the client for the endpoint and connects its channel, and
+     * creates the microphone recorder, so that the next {@link #startListening(Intent)} only
+     * has to start recording and open the stream. The recorder is not started here, the
+     * microphone stays off until then.
+     */
+    @Override
+    public void prepare(Intent intent) {
+        String apiKey = intent.getStringExtra("apikey");
+        if (apiKey == null) {
+            apiKey = defaultApiKey();
+        }
+        if (apiKey != null) {
+            try {
+                SpeechClientPool.getInstance().warmUp(context, apiKey, intent.getStringExtra("SPEECH_ENDPOINT"));
+            } catch (IOException e) {
+                Log.w("ASR", "cannot prepare speech client", e);
+            }
+        }
+        if (intent.getStringExtra("AUDIO_FILE") != null) {
+            return;
+        }
+        synchronized (this) {
+            if (preparedRecorder == null) {
+                preparedRecorder = new MicrophoneAudioStream(context, RECOGNITION_SAMPLE_RATE, RECOGNITION_AUDIO_CHANNELS);
+            }
+        }
+    }
+
+    /**
+     * @return the recorder created by {@link #prepare(Intent)} if it is usable, or null
+     */
+    @Nullable
+    private synchronized MicrophoneAudioStream takePreparedRecorder() {
+        MicrophoneAudioStream recorder = preparedRecorder;
+        preparedRecorder = null;
+        if (recorder != null && !recorder.isInitialized()) {
+            // created before the record permission was granted
+            recorder.release();
+            return null;
+        }
+        return recorder;
+    }
+
+    /**
+     * Opens the shared channel for the api key ahead of time so that the next
+     * {@link #startListening(Intent)} does not wait for the connection.
+     */
+    public void warmUp(@Nullable String apiKey) throws IOException {
+        if (apiKey == null) {
+            apiKey = defaultApiKey();
+        }
+        if (apiKey == null) {
+            return;
+        }
+        SpeechClientPool.getInstance().warmUp(context, apiKey);
+    }
+
+    /**
+     * @return how full the buffer between microphone capture and network send is, from 0 to 1
+     */
+    public float getCaptureBufferFillLevel() {
+        AudioRingBuffer buffer = captureBuffer;
+        return buffer != null ? buffer.fillLevel() : 0f;
+    }
+
+    /**
+     * @return how many times captured audio was dropped because the sender fell behind
+     */
+    public long getCaptureOverrunCount() {
+        AudioRingBuffer buffer = captureBuffer;
+        return buffer != null ? buffer.overrunCount() : 0L;
+    }
+
+    /**
+     * Replaces the energy based detector used when voice activity detection is enabled.
+     */
+    public synchronized void setVoiceActivityDetector(@Nullable VoiceActivityDetector detector) {
+        voiceActivityDetector = detector;
+    }
+
+    @NonNull
+    private synchronized VoiceActivityDetector voiceActivityDetector(@NonNull RecognitionRequest request) {
+        VoiceActivityDetector detector = voiceActivityDetector;
+        if (detector == null) {
+            detector = new EnergyVoiceActivityDetector(request.vadThresholdDb);
+        }
+        return detector;
+    }
+
+    @NonNull
+    private synchronized AudioBufferPool bufferPool(int bufferSize) {
+        AudioBufferPool pool = bufferPool;
+        if (pool == null || pool.bufferSize() != bufferSize) {
+            pool = new AudioBufferPool(bufferSize, MAX_POOLED_BUFFERS);
+            bufferPool = pool;
+        }
+        return pool;
     }
 
     @Override
@@ -113,26 +332,6 @@ public class GoogleCloudVoice implements SpeechRecognizer {
         }
     }
 
-    @NonNull
-    private SpeechClient createApiClient(@NonNull String apiKey) throws IOException {
-        final Map<String, String> headers = SignatureUtils.calculateSignatureHeaders(context, apiKey);
-        SpeechSettings settings = SpeechSettings.newBuilder()
-                .setHeaderProvider(new HeaderProvider() {
-                    @Override
-                    public Map<String, String> getHeaders() {
-                        return headers;
-                    }
-                })
-                .setCredentialsProvider(new FixedCredentialsProvider() {
-                    @Override
-                    public Credentials getCredentials() {
-                        return new DummyCredential();
-                    }
-                })
-                .build();
-        return SpeechClient.create(settings);
-    }
-
     /* Start event notify */
     void notifySpeechReady() {
         RecognitionListener listener = recognitionListener;
@@ -141,6 +340,9 @@ public class GoogleCloudVoice implements SpeechRecognizer {
         }
     }
 
+    /**
+     * The buffer is reused for the next chunk, listeners must copy it to keep it.
+     */
     void notifyAudioBuffer(byte[] buffer) {
         RecognitionListener listener = recognitionListener;
         if (listener != null) {
@@ -148,6 +350,9 @@ public class GoogleCloudVoice implements SpeechRecognizer {
         }
     }
 
+    /**
+     * @param dbLevel RMS level of the last {@code LEVEL_WINDOW_MILLIS} of audio in dBFS, -96 to 0
+     */
     void notifyVoiceDB(float dbLevel) {
         RecognitionListener listener = recognitionListener;
         if (listener != null) {
@@ -155,6 +360,14 @@ public class GoogleCloudVoice implements SpeechRecognizer {
         }
     }
 
+    void notifyAudioError(@NonNull IOException e) {
+        Log.w("ASR", "audio failed", e);
+        RecognitionListener listener = recognitionListener;
+        if (listener != null) {
+            listener.onError(ERROR_AUDIO);
+        }
+    }
+
     void notifySpeechEnd(@Nullable Throwable e) {
         RecognitionListener listener = recognitionListener;
         if (listener != null) {
@@ -189,8 +402,12 @@ public class GoogleCloudVoice implements SpeechRecognizer {
     }
 
     /* End event notify */
+    private static long toMillis(@NonNull Duration duration) {
+        return duration.getSeconds() * 1000 + duration.getNanos() / 1000000;
+    }
+
     @NonNull
-    private static String joinString(@NonNull String separator, @NonNull String... others) {
+    static String joinString(@NonNull String separator, @NonNull String... others) {
         if (others.length == 0) {
             return "";
         }
@@ -207,14 +424,45 @@ public class GoogleCloudVoice implements SpeechRecognizer {
         return s.toString();
     }
 
-    private static class RecognitionRequest {
+    /**
+     * Languages written without spaces between words are joined without a separator.
+     */
+    @NonNull
+    static String wordSeparator(@Nullable String language) {
+        String code = language == null ? "" : language.toLowerCase(Locale.US);
+        if (code.startsWith("ja") || code.startsWith("zh") || code.startsWith("th") || code.startsWith("cmn") || code.startsWith("yue")) {
+            return "";
+        }
+        return " ";
+    }
+
+    static class RecognitionRequest {
         private String apiKey;
         private int maxAlternatives;
         private String language;
         private boolean interimResults;
+        private boolean wordTimeOffsets;
+        private boolean transcriptDeltas;
         private boolean autoStop;
         private boolean bufferOut;
         private boolean rmsDBOut;
+        private boolean gaplessRollover;
+        private int carryOverMillis;
+        private int minChunkMillis;
+        private int maxChunkMillis;
+        private int reconnectAttempts;
+        private boolean singleUtterance;
+        private int endSilenceMillis;
+        private int finalizeTimeoutMillis;
+        private boolean voiceActivityDetection;
+        private float vadThresholdDb;
+        private int vadHangoverMillis;
+        private int vadPreRollMillis;
+        private int vadKeepAliveMillis;
+        private RecognitionConfig.AudioEncoding encoding;
+        private String endpoint;
+        private boolean spool;
+        private long spoolMaxBytes;
 
         public String getApiKey() {
             return apiKey;
@@ -232,6 +480,14 @@ public class GoogleCloudVoice implements SpeechRecognizer {
             return interimResults;
         }
 
+        public boolean isWordTimeOffsets() {
+            return wordTimeOffsets;
+        }
+
+        public boolean isTranscriptDeltas() {
+            return transcriptDeltas;
+        }
+
         public boolean isAutoStop() {
             return autoStop;
         }
@@ -244,14 +500,101 @@ public class GoogleCloudVoice implements SpeechRecognizer {
             return rmsDBOut;
         }
 
+        public boolean isGaplessRollover() {
+            return gaplessRollover;
+        }
+
+        public int getCarryOverMillis() {
+            return carryOverMillis;
+        }
+
+        public int getMinChunkMillis() {
+            return minChunkMillis;
+        }
+
+        public int getMaxChunkMillis() {
+            return maxChunkMillis;
+        }
+
+        public int getReconnectAttempts() {
+            return reconnectAttempts;
+        }
+
+        public boolean isSingleUtterance() {
+            return singleUtterance;
+        }
+
+        public int getEndSilenceMillis() {
+            return endSilenceMillis;
+        }
+
+        public int getFinalizeTimeoutMillis() {
+            return finalizeTimeoutMillis;
+        }
+
+        public boolean isVoiceActivityDetection() {
+            return voiceActivityDetection;
+        }
+
+        public float getVadThresholdDb() {
+            return vadThresholdDb;
+        }
+
+        public int getVadHangoverMillis() {
+            return vadHangoverMillis;
+        }
+
+        public int getVadPreRollMillis() {
+            return vadPreRollMillis;
+        }
+
+        public int getVadKeepAliveMillis() {
+            return vadKeepAliveMillis;
+        }
+
+        public RecognitionConfig.AudioEncoding getEncoding() {
+            return encoding;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public boolean isSpool() {
+            return spool;
+        }
+
+        public long getSpoolMaxBytes() {
+            return spoolMaxBytes;
+        }
+
         public static class Builder {
             private final String apiKey;
             private int maxAlternatives = 1;
             private String language = "en-US";
             private boolean interimResults = true;
+            private boolean wordTimeOffsets = false;
+            private boolean transcriptDeltas = false;
             private boolean autoStop = true;
             private boolean bufferOut = false;
             private boolean rmsDBOut = true;
+            private boolean gaplessRollover = false;
+            private int carryOverMillis = DEFAULT_CARRY_OVER_MILLIS;
+            private int minChunkMillis = DEFAULT_MIN_CHUNK_MILLIS;
+            private int maxChunkMillis = DEFAULT_MAX_CHUNK_MILLIS;
+            private int reconnectAttempts = DEFAULT_RECONNECT_ATTEMPTS;
+            private boolean singleUtterance = false;
+            private int endSilenceMillis = 0;
+            private int finalizeTimeoutMillis = DEFAULT_FINALIZE_TIMEOUT_MILLIS;
+            private boolean voiceActivityDetection = false;
+            private float vadThresholdDb = EnergyVoiceActivityDetector.DEFAULT_THRESHOLD_DB;
+            private int vadHangoverMillis = DEFAULT_VAD_HANGOVER_MILLIS;
+            private int vadPreRollMillis = DEFAULT_VAD_PRE_ROLL_MILLIS;
+            private int vadKeepAliveMillis = DEFAULT_VAD_KEEP_ALIVE_MILLIS;
+            private RecognitionConfig.AudioEncoding encoding = RecognitionConfig.AudioEncoding.LINEAR16;
+            private String endpoint;
+            private boolean spool = false;
+            private long spoolMaxBytes = AudioSpool.DEFAULT_MAX_BYTES;
 
             public Builder(String apiKey) {
                 this.apiKey = apiKey;
@@ -272,6 +615,23 @@ public class GoogleCloudVoice implements SpeechRecognizer {
                 return this;
             }
 
+            /**
+             * Asks for the start and end time of every word of final results.
+             */
+            public Builder wordTimeOffsets(boolean wordTimeOffsets) {
+                this.wordTimeOffsets = wordTimeOffsets;
+                return this;
+            }
+
+            /**
+             * Keeps the session transcript and reports its changes to a
+             * {@link TranscriptListener}.
+             */
+            public Builder transcriptDeltas(boolean transcriptDeltas) {
+                this.transcriptDeltas = transcriptDeltas;
+                return this;
+            }
+
             public Builder language(String lang) {
                 this.language = lang;
                 return this;
@@ -287,15 +647,160 @@ public class GoogleCloudVoice implements SpeechRecognizer {
                 return this;
             }
 
+            /**
+             * Opens the next stream before the current one reaches the session limit and
+             * replays the last {@link #carryOverMillis(int)} of audio into it.
+             */
+            public Builder gaplessRollover(boolean gaplessRollover) {
+                this.gaplessRollover = gaplessRollover;
+                return this;
+            }
+
+            public Builder carryOverMillis(int carryOverMillis) {
+                this.carryOverMillis = Math.max(0, carryOverMillis);
+                return this;
+            }
+
+            /**
+             * Shortest audio chunk sent to the stream. Chunks are sized between this and
+             * {@link #maxChunkMillis(int)} from the measured send time and result lag, see
+             * {@link ChunkSizer}. Equal limits send fixed chunks.
+             */
+            public Builder minChunkMillis(int minChunkMillis) {
+                this.minChunkMillis = Math.max(10, minChunkMillis);
+                return this;
+            }
+
+            public Builder maxChunkMillis(int maxChunkMillis) {
+                this.maxChunkMillis = Math.max(10, maxChunkMillis);
+                return this;
+            }
+
+            /**
+             * How many times in a row a stream that fails with a network error is reopened,
+             * see {@link StreamRetry}. The audio not covered by final results yet is replayed
+             * into the new stream. 0 ends the session at the first error.
+             */
+            public Builder reconnectAttempts(int reconnectAttempts) {
+                this.reconnectAttempts = Math.max(0, reconnectAttempts);
+                return this;
+            }
+
+            /**
+             * Lets the service decide when the utterance ends. Listening stops at its
+             * {@code END_OF_SINGLE_UTTERANCE} event and the final result follows shortly.
+             */
+            public Builder singleUtterance(boolean singleUtterance) {
+                this.singleUtterance = singleUtterance;
+                return this;
+            }
+
+            /**
+             * Stops listening once this much silence follows speech, as measured on the device
+             * with {@link #vadThresholdDb(float)}, see {@link Endpointer}. 0 leaves stopping
+             * to the caller and the no-result timers.
+             */
+            public Builder endSilenceMillis(int endSilenceMillis) {
+                this.endSilenceMillis = Math.max(0, endSilenceMillis);
+                return this;
+            }
+
+            /**
+             * How long after a stop to wait for the final results. When it passes, the last
+             * partial result is delivered as final and the end of speech is reported.
+             */
+            public Builder finalizeTimeoutMillis(int finalizeTimeoutMillis) {
+                this.finalizeTimeoutMillis = Math.max(0, finalizeTimeoutMillis);
+                return this;
+            }
+
+            /**
+             * Only streams audio that the voice activity detector classifies as speech.
+             */
+            public Builder voiceActivityDetection(boolean voiceActivityDetection) {
+                this.voiceActivityDetection = voiceActivityDetection;
+                return this;
+            }
+
+            public Builder vadThresholdDb(float vadThresholdDb) {
+                this.vadThresholdDb = vadThresholdDb;
+                return this;
+            }
+
+            public Builder vadHangoverMillis(int vadHangoverMillis) {
+                this.vadHangoverMillis = Math.max(0, vadHangoverMillis);
+                return this;
+            }
+
+            public Builder vadPreRollMillis(int vadPreRollMillis) {
+                this.vadPreRollMillis = Math.max(0, vadPreRollMillis);
+                return this;
+            }
+
+            public Builder vadKeepAliveMillis(int vadKeepAliveMillis) {
+                this.vadKeepAliveMillis = Math.max(0, vadKeepAliveMillis);
+                return this;
+            }
+
+            /**
+             * Uplink encoding. Unsupported encodings, or OGG_OPUS on devices without an Opus
+             * encoder, fall back to LINEAR16.
+             */
+            public Builder encoding(RecognitionConfig.AudioEncoding encoding) {
+                this.encoding = encoding;
+                return this;
+            }
+
+            /**
+             * Overrides the Speech endpoint, see {@link SpeechClientPool}. {@code null} uses Google Cloud.
+             */
+            public Builder endpoint(String endpoint) {
+                this.endpoint = endpoint;
+                return this;
+            }
+
+            /**
+             * Writes the captured audio to an {@link AudioSpool} until final results cover it,
+             * and keeps it there when the stream fails.
+             */
+            public Builder spool(boolean spool) {
+                this.spool = spool;
+                return this;
+            }
+
+            public Builder spoolMaxBytes(long spoolMaxBytes) {
+                this.spoolMaxBytes = Math.max(0, spoolMaxBytes);
+                return this;
+            }
+
             public RecognitionRequest build() {
                 RecognitionRequest r = new RecognitionRequest();
                 r.apiKey = apiKey;
                 r.maxAlternatives = maxAlternatives;
                 r.autoStop = autoStop;
                 r.interimResults = interimResults;
+                r.wordTimeOffsets = wordTimeOffsets;
+                r.transcriptDeltas = transcriptDeltas;
                 r.language = language;
                 r.bufferOut = bufferOut;
                 r.rmsDBOut = rmsDBOut;
+                r.gaplessRollover = gaplessRollover;
+                r.carryOverMillis = carryOverMillis;
+                r.minChunkMillis = minChunkMillis;
+                r.maxChunkMillis = Math.max(minChunkMillis, maxChunkMillis);
+                r.reconnectAttempts = reconnectAttempts;
+                r.singleUtterance = singleUtterance;
+                r.endSilenceMillis = endSilenceMillis;
+                r.finalizeTimeoutMillis = finalizeTimeoutMillis;
+                r.voiceActivityDetection = voiceActivityDetection;
+                r.vadThresholdDb = vadThresholdDb;
+                r.vadHangoverMillis = vadHangoverMillis;
+                r.vadPreRollMillis = vadPreRollMillis;
+                r.vadKeepAliveMillis = vadKeepAliveMillis;
+                r.encoding = encoding;
+                r.endpoint = endpoint;
+                r.spool = spool;
+                r.spoolMaxBytes = spoolMaxBytes;
                 return r;
             }
         }
@@ -304,106 +809,358 @@ public class GoogleCloudVoice implements SpeechRecognizer {
     private class RecognitionThread extends Thread {
         private final RecognitionRequest request;
         private final AudioStream recorder;
+        private final TranscriptStitcher stitcher;
+        private final TranscriptAssembler assembler;
+        private volatile AudioRingBuffer ringBuffer;
+        private byte[] notifyBuffer;
+        private VadGate vadGate;
+        private final int sampleRate;
+        private final int channels;
+        private final boolean realTime;
+        private final LevelMeter levelMeter;
+        private final ChunkSizer chunkSizer;
+        private final StreamRetry retry = new StreamRetry();
+        /**
+         * Recent audio, replayed into the stream that replaces a failed one.
+         */
+        private final CarryOverBuffer journal;
+        private final Endpointer endpointer;
+        private CarryOverBuffer carryOver;
+        private int generation;
+        private volatile int reconnectAttempt;
+        /**
+         * The stream closed last, which owes the results for the audio up to the stop.
+         */
+        private volatile StreamSession drainingStream;
+        /**
+         * Position in the session audio up to which final results have been received.
+         */
+        private volatile long finalizedBytes;
+        /**
+         * Orders result delivery between streams, and against the promotion of the last
+         * partial result after a stop.
+         */
+        private final Object resultLock = new Object();
+        private int openStreams;
+        private boolean resultsClosed;
+        private String pendingPartial;
+        private RecognitionResult pendingPartialResult;
+        private long lastFinalTime;
+        private volatile long stopTime;
+
+        private final long listenStartTime = System.nanoTime();
+        private boolean audioSent;
+        private long lastAudioSentTime;
+        private boolean partialReceived;
+        private boolean finalReceived;
+        private volatile long capturedBytes;
+        private long lastWordEndMillis;
+        private volatile AudioSpool.Session spool;
+        private volatile boolean streamFailed;
+        private volatile AudioCaptureThread captureThread;
 
         private volatile boolean stopped = false;
         private volatile boolean canceled = false;
-        private Timer timer;
+        private final Deadline autoStop = new Deadline(SpeechScheduler.get(), new Deadline.Callback() {
+            @Override
+            public void onExpired(long latenessNanos, long idleNanos) {
+                METRICS.autoStopLateness.recordNanos(latenessNanos);
+                METRICS.autoStopIdle.recordNanos(idleNanos);
+                Log.d("ASR", "auto stop after " + TimeUnit.NANOSECONDS.toMillis(idleNanos)
+                        + " ms without results, " + TimeUnit.NANOSECONDS.toMicros(latenessNanos) + " us late");
+                requestStopListening();
+            }
+        });
 
         public RecognitionThread(@NonNull RecognitionRequest request, @NonNull AudioStream recorder) {
             this.request = request;
             this.recorder = recorder;
+            this.sampleRate = recorder.sampleRate();
+            this.channels = recorder.channels();
+            this.realTime = recorder.isRealTime();
+            this.levelMeter = LevelMeter.forDuration(sampleRate, channels, LEVEL_WINDOW_MILLIS);
+            this.stitcher = new TranscriptStitcher(wordSeparator(request.language));
+            this.assembler = request.transcriptDeltas ? new TranscriptAssembler(wordSeparator(request.language)) : null;
+            this.chunkSizer = new ChunkSizer(sampleRate, channels, request.minChunkMillis, request.maxChunkMillis,
+                    INITIAL_CHUNK_MILLIS);
+            this.journal = request.reconnectAttempts > 0
+                    ? CarryOverBuffer.forDuration(sampleRate, channels, RECONNECT_JOURNAL_MILLIS) : null;
+            // its own detector, a custom one may keep state for the voice activity gate
+            this.endpointer = request.endSilenceMillis > 0
+                    ? new Endpointer(new EnergyVoiceActivityDetector(request.vadThresholdDb), sampleRate, channels,
+                    request.endSilenceMillis) : null;
         }
 
         @Override
         public void run() {
-            float bufferTime = 0.3f;
-            int recognitionBufferSize = (int) (bufferTime * RECOGNITION_SAMPLE_RATE * 2);
+            AudioCaptureThread capture = null;
+            // capture in steps no larger than the smallest chunk, so small chunks are not late
+            int captureSize = Math.min(realTime ? chunkSizer.minChunkBytes() : chunkSizer.maxChunkBytes(),
+                    recorder.desireBufferSize());
+            AudioBufferPool pool = bufferPool(chunkSizer.maxChunkBytes());
+            ByteBuffer buffer = pool.acquire();
             try {
-                int bufferSize = Math.min(recognitionBufferSize, recorder.desireBufferSize());
-                byte[] buffer = new byte[bufferSize];
+                if (request.voiceActivityDetection) {
+                    vadGate = new VadGate(voiceActivityDetector(request), sampleRate, channels,
+                            request.vadHangoverMillis, request.vadPreRollMillis, request.vadKeepAliveMillis);
+                }
+                ringBuffer = AudioRingBuffer.forDuration(sampleRate, channels, CAPTURE_BUFFER_MILLIS);
+                captureBuffer = ringBuffer;
+                if (request.spool) {
+                    openSpool();
+                }
+                capture = new AudioCaptureThread(recorder, ringBuffer, pool, captureSize);
+                captureThread = capture;
+                METRICS.sessions.incrementAndGet();
                 notifySpeechReady();
-                recorder.start();
+                capture.start();
                 scheduleAutoStopTimer(FIRST_DELAY);
-                startRecognitionMulti(recorder, buffer);
+                startRecognitionMulti(buffer);
             } finally {
                 cancelAutoStopTimer();
-                recorder.stop();
+                if (capture != null) {
+                    capture.requestStop();
+                }
+                if (ringBuffer != null) {
+                    METRICS.droppedSamples.addAndGet(ringBuffer.droppedBytes() / 2);
+                    METRICS.captureOverruns.addAndGet(ringBuffer.overrunCount());
+                }
+                if (recorder instanceof MicrophoneAudioStream) {
+                    MicrophoneAudioStream microphone = (MicrophoneAudioStream) recorder;
+                    METRICS.droppedSamples.addAndGet(microphone.lostFrames() * channels);
+                    METRICS.recorderOverruns.addAndGet(microphone.overrunCount());
+                }
+                if (spool != null) {
+                    spool.close(streamFailed);
+                }
+                pool.release(buffer);
             }
         }
 
-        private final ResponseObserver<StreamingRecognizeResponse> responseObserver = new ResponseObserver<StreamingRecognizeResponse>() {
-            @Override
-            public void onStart(StreamController controller) {
-
+        private void onStreamResponse(@NonNull StreamSession session, @NonNull StreamingRecognizeResponse response) {
+            if (canceled) {
+                return;
             }
-
-            @Override
-            public void onResponse(StreamingRecognizeResponse response) {
-                if (canceled) {
+            if (response.getSpeechEventType() == StreamingRecognizeResponse.SpeechEventType.END_OF_SINGLE_UTTERANCE) {
+                // the service stops listening by itself, the final result follows
+                Log.d("ASR", "end of single utterance");
+                requestStopListening();
+            }
+            StreamingRecognitionResult streamResult = getStreamResult(response);
+            if (streamResult == null) {
+                return;
+            }
+            reconnectAttempt = 0;
+            if (streamResult.hasResultEndTime()) {
+                long lag = session.sentMillis() - toMillis(streamResult.getResultEndTime());
+                METRICS.resultLag.recordMillis(lag);
+                chunkSizer.onResponse(lag);
+            }
+            List<SpeechRecognitionAlternative> alternativeList = streamResult.getAlternativesList();
+            if (alternativeList.size() == 0) {
+                return;
+            }
+            onResultReceived(streamResult.getIsFinal());
+            String candidate = alternativeList.get(0).getTranscript().trim();
+            if (request.gaplessRollover) {
+                candidate = stitcher.stitch(session.generation, candidate, streamResult.getIsFinal());
+            }
+            // two streams may answer at once during a gapless rollover, deltas must stay in order
+            synchronized (resultLock) {
+                if (resultsClosed) {
+                    // the last partial result was already promoted
                     return;
                 }
-                StreamingRecognitionResult streamResult = getStreamResult(response);
-                if (streamResult == null) {
-                    return;
+                RecognitionListener listener = recognitionListener;
+                if (assembler != null) {
+                    TranscriptDelta delta = assembler.update(candidate.trim(), streamResult.getIsFinal());
+                    if (delta != null && listener instanceof TranscriptListener) {
+                        ((TranscriptListener) listener).onTranscriptChanged(delta);
+                    }
                 }
-                List<SpeechRecognitionAlternative> alternativeList = streamResult.getAlternativesList();
-                if (alternativeList.size() == 0) {
-                    return;
+                RecognitionResult result = null;
+                if (listener instanceof RecognitionResultListener) {
+                    result = toRecognitionResult(session, streamResult, candidate.trim());
+                    ((RecognitionResultListener) listener).onRecognitionResult(result);
+                } else {
+                    notifyIntermediateResult(candidate.trim());
+                    if (streamResult.getIsFinal() && candidate.length() > 0) {
+                        notifyResult(candidate);
+                    }
                 }
-                String candidate = alternativeList.get(0).getTranscript().trim();
-                notifyIntermediateResult(candidate.trim());
                 if (streamResult.getIsFinal()) {
-                    notifyResult(candidate);
-                    if (request.autoStop) {
-                        requestStopListening();
-                    } else {
-                        if (!stopped) {
-                            scheduleAutoStopTimer(LISTENING_DELAY);
-                        }
-                    }
+                    pendingPartial = null;
+                    pendingPartialResult = null;
+                    lastFinalTime = System.nanoTime();
+                } else {
+                    pendingPartial = candidate.trim();
+                    pendingPartialResult = result;
+                }
+            }
+            if (streamResult.getIsFinal()) {
+                long endBytes = resultEndBytes(session, streamResult);
+                // without a known end, everything captured so far counts as covered
+                finalizedBytes = Math.max(finalizedBytes, endBytes >= 0 ? endBytes : capturedBytes);
+                recordCaptureToFinal(endBytes);
+                AudioSpool.Session spoolSession = spool;
+                if (spoolSession != null && endBytes >= 0) {
+                    spoolSession.commit(endBytes);
+                }
+                if (request.autoStop) {
+                    requestStopListening();
                 } else {
                     if (!stopped) {
                         scheduleAutoStopTimer(LISTENING_DELAY);
                     }
                 }
+            } else {
+                if (!stopped) {
+                    scheduleAutoStopTimer(LISTENING_DELAY);
+                }
             }
+        }
 
-            @Nullable
-            private StreamingRecognitionResult getStreamResult(@NonNull StreamingRecognizeResponse response) {
-                List<StreamingRecognitionResult> resultList = response.getResultsList();
-                if (resultList.size() == 0) {
-                    return null;
-                }
-                for (StreamingRecognitionResult recognitionResult : resultList) {
-                    if (recognitionResult.getIsFinal()) {
-                        return recognitionResult;
+        /**
+         * Responses of two streams may arrive together during a gapless rollover.
+         */
+        private synchronized void onResultReceived(boolean isFinal) {
+            long now = System.nanoTime();
+            if (!partialReceived) {
+                partialReceived = true;
+                METRICS.firstPartial.recordNanos(now - listenStartTime);
+            }
+            if (isFinal && !finalReceived) {
+                finalReceived = true;
+                METRICS.firstFinal.recordNanos(now - listenStartTime);
+            }
+        }
+
+        /**
+         * Copies every alternative of a result. Word times are moved from the stream's clock to
+         * the session's. Words that a gapless rollover replayed into the new stream, and that
+         * an earlier final result already had, are left out of the first alternative.
+         * With voice activity detection the stream does not get all audio, so its word times
+         * are kept as they are and nothing is left out.
+         */
+        @NonNull
+        private synchronized RecognitionResult toRecognitionResult(@NonNull StreamSession session,
+                                                                   @NonNull StreamingRecognitionResult streamResult,
+                                                                   @NonNull String transcript) {
+            boolean gated = vadGate != null;
+            long offsetMillis = gated ? 0 : bytesToMillis(session.audioOffsetBytes);
+            List<SpeechRecognitionAlternative> alternativeList = streamResult.getAlternativesList();
+            List<RecognitionResult.Alternative> alternatives = new ArrayList<>(alternativeList.size());
+            for (int i = 0; i < alternativeList.size(); i++) {
+                SpeechRecognitionAlternative alternative = alternativeList.get(i);
+                List<RecognitionResult.Word> words;
+                if (alternative.getWordsCount() == 0) {
+                    words = Collections.emptyList();
+                } else {
+                    words = new ArrayList<>(alternative.getWordsCount());
+                    for (WordInfo info : alternative.getWordsList()) {
+                        long start = offsetMillis + toMillis(info.getStartTime());
+                        long end = offsetMillis + toMillis(info.getEndTime());
+                        if (i == 0 && !gated && session.generation > 0 && end <= lastWordEndMillis) {
+                            continue;
+                        }
+                        words.add(new RecognitionResult.Word(info.getWord(), start, end));
                     }
                 }
-                return resultList.get(0);
+                alternatives.add(new RecognitionResult.Alternative(
+                        i == 0 ? transcript : alternative.getTranscript().trim(), alternative.getConfidence(), words));
             }
+            if (streamResult.getIsFinal()) {
+                List<RecognitionResult.Word> words = alternatives.get(0).getWords();
+                if (!words.isEmpty()) {
+                    lastWordEndMillis = Math.max(lastWordEndMillis, words.get(words.size() - 1).getEndMillis());
+                }
+            }
+            return new RecognitionResult(streamResult.getIsFinal(), streamResult.getStability(), alternatives);
+        }
 
-            @Override
-            public void onError(Throwable error) {
-                if (canceled) {
-                    return;
+        private long bytesToMillis(long bytes) {
+            return bytes * 1000 / (sampleRate * channels * 2);
+        }
+
+        @Nullable
+        private StreamingRecognitionResult getStreamResult(@NonNull StreamingRecognizeResponse response) {
+            List<StreamingRecognitionResult> resultList = response.getResultsList();
+            if (resultList.size() == 0) {
+                return null;
+            }
+            for (StreamingRecognitionResult recognitionResult : resultList) {
+                if (recognitionResult.getIsFinal()) {
+                    return recognitionResult;
                 }
-                requestCancelListening();
-                notifySpeechEnd(error);
             }
+            return resultList.get(0);
+        }
 
-            @Override
-            public void onComplete() {
+        private void onStreamError(Throwable error) {
+            if (canceled) {
+                return;
+            }
+            streamFailed = true;
+            requestCancelListening();
+            notifySpeechEnd(error);
+        }
+
+        private void onAudioError(@NonNull IOException error) {
+            if (canceled) {
+                return;
+            }
+            requestCancelListening();
+            notifyAudioError(error);
+        }
 
+        /**
+         * Waits for a full chunk from the capture thread, or less when listening stops or
+         * capture ends.
+         *
+         * @return number of bytes read, or -1 when capture has ended
+         */
+        private int readAudio(@NonNull ByteBuffer buffer) {
+            int length = Math.min(chunkSizer.nextChunkBytes(), buffer.capacity());
+            while (!stopped && !canceled) {
+                int available = ringBuffer.await(length, CAPTURE_POLL_NANOS);
+                if (available >= length || ringBuffer.isClosed()) {
+                    break;
+                }
+            }
+            int byteRead = ringBuffer.read(buffer, length);
+            if (byteRead < 0) {
+                AudioCaptureThread capture = captureThread;
+                IOException failure = capture != null ? capture.failure() : null;
+                if (failure != null) {
+                    onAudioError(failure);
+                } else {
+                    // the audio stream ended by itself, e.g. at the end of a file
+                    requestStopListening();
+                }
             }
-        };
+            return byteRead;
+        }
 
-        private void startRecognitionMulti(@NonNull AudioStream recorder, @NonNull byte[] buffer) {
+        private void startRecognitionMulti(@NonNull ByteBuffer buffer) {
+            SpeechClientPool pool = SpeechClientPool.getInstance();
             try {
-                while (!stopped && !canceled) {
-                    startRecognitionSingle(recorder, buffer);
+                SpeechClient client = pool.acquire(context, request.apiKey, request.endpoint);
+                try {
+                    if (request.gaplessRollover) {
+                        startRecognitionGapless(client, buffer);
+                    } else {
+                        while (!stopped && !canceled) {
+                            startRecognitionSingle(client, buffer);
+                        }
+                    }
+                    if (!canceled) {
+                        awaitFinalResults(client, buffer);
+                    }
+                } finally {
+                    pool.release(request.apiKey, request.endpoint);
                 }
             } catch (Exception e) {
-                responseObserver.onError(e);
+                onStreamError(e);
             } finally {
                 if (!canceled) {
                     notifySpeechEnd(null);
@@ -411,144 +1168,645 @@ public class GoogleCloudVoice implements SpeechRecognizer {
             }
         }
 
-        private void startRecognitionSingle(@NonNull AudioStream recorder, @NonNull byte[] buffer) throws IOException {
-            SpeechClient client = null;
+        /**
+         * After a stop, waits until the service has closed every stream, so that their final
+         * results come before the end of speech, or until the finalize timeout. When the last
+         * stream fails before its final result, the audio since the last final result is
+         * replayed into a new stream. A partial result that is still pending then is delivered
+         * as final.
+         */
+        private void awaitFinalResults(@NonNull SpeechClient client, @NonNull ByteBuffer buffer) {
+            long deadline = stopTime + TimeUnit.MILLISECONDS.toNanos(request.finalizeTimeoutMillis);
+            boolean promoted = false;
+            long finalTime;
+            while (true) {
+                StreamSession failed;
+                synchronized (resultLock) {
+                    long remaining;
+                    while (openStreams > 0 && !canceled && drainFailure() == null
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(resultLock, remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    if (canceled) {
+                        return;
+                    }
+                    failed = System.nanoTime() < deadline ? drainFailure() : null;
+                }
+                if (failed == null) {
+                    break;
+                }
+                StreamSession replacement = reconnect(client, failed, buffer);
+                if (replacement == null) {
+                    return;
+                }
+                replacement.closeSend();
+                drainingStream = replacement;
+            }
+            synchronized (resultLock) {
+                resultsClosed = true;
+                if (pendingPartial != null && pendingPartial.length() > 0) {
+                    Log.d("ASR", "no final result " + request.finalizeTimeoutMillis + " ms after stop, promoting partial");
+                    promotePendingPartial();
+                    promoted = true;
+                }
+                finalTime = promoted ? System.nanoTime() : lastFinalTime;
+            }
+            if (promoted) {
+                METRICS.promotedFinals.incrementAndGet();
+            }
+            if (finalTime > stopTime) {
+                METRICS.stopToFinal.recordNanos(finalTime - stopTime);
+            }
+        }
+
+        /**
+         * @return the last stream when it failed after it was closed, with results still owed
+         */
+        @Nullable
+        private StreamSession drainFailure() {
+            StreamSession session = drainingStream;
+            return session != null && session.failure != null ? session : null;
+        }
+
+        /**
+         * Delivers the pending partial result as final, holding {@link #resultLock}.
+         */
+        private void promotePendingPartial() {
+            RecognitionListener listener = recognitionListener;
+            if (assembler != null) {
+                TranscriptDelta delta = assembler.update(pendingPartial, true);
+                if (delta != null && listener instanceof TranscriptListener) {
+                    ((TranscriptListener) listener).onTranscriptChanged(delta);
+                }
+            }
+            if (listener instanceof RecognitionResultListener) {
+                List<RecognitionResult.Alternative> alternatives = pendingPartialResult != null
+                        ? pendingPartialResult.getAlternatives()
+                        : Collections.singletonList(new RecognitionResult.Alternative(pendingPartial, 0f,
+                        Collections.<RecognitionResult.Word>emptyList()));
+                ((RecognitionResultListener) listener).onRecognitionResult(new RecognitionResult(true, 0f, alternatives));
+            } else {
+                notifyResult(pendingPartial);
+            }
+            pendingPartial = null;
+            pendingPartialResult = null;
+        }
+
+        private void onStreamOpened() {
+            synchronized (resultLock) {
+                openStreams++;
+            }
+        }
+
+        private void onStreamClosed() {
+            synchronized (resultLock) {
+                openStreams--;
+                resultLock.notifyAll();
+            }
+        }
+
+        private void startRecognitionSingle(@NonNull SpeechClient client, @NonNull ByteBuffer buffer) {
+            StreamSession session = newStream(client);
             try {
-                client = createApiClient(request.apiKey);
-                ClientStream<StreamingRecognizeRequest> clientStream = client.streamingRecognizeCallable()
-                        .splitCall(responseObserver);
-                RecognitionConfig config = RecognitionConfig.newBuilder()
-                        .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                        .setAudioChannelCount(RECOGNITION_AUDIO_CHANNELS)
-                        .setMaxAlternatives(request.maxAlternatives)
-                        .setLanguageCode(request.language)
-                        .setSampleRateHertz(RECOGNITION_SAMPLE_RATE)
-                        .build();
-                StreamingRecognitionConfig streamConfig = StreamingRecognitionConfig.newBuilder()
-                        .setInterimResults(request.interimResults)
-                        .setConfig(config)
-                        .build();
-                StreamingRecognizeRequest request = StreamingRecognizeRequest.newBuilder()
-                        .setStreamingConfig(streamConfig)
-                        .build();
-                clientStream.send(request);
-                long startTime = System.currentTimeMillis();
-                int bufferSize = buffer.length;
-                int rmsCounter = 0;
-                while (true) {
-                    if (stopped || canceled) {
-                        break;
+                while (!stopped && !canceled) {
+                    if (session.failure != null) {
+                        session = reconnect(client, session, buffer);
+                        if (session == null) {
+                            return;
+                        }
                     }
-                    long estimatedTime = System.currentTimeMillis() - startTime;
-                    if (estimatedTime > MAX_RECOGNITION_SESSION_TIME) {
+                    if (session.elapsed() > MAX_RECOGNITION_SESSION_TIME) {
                         break;
                     }
-                    int byteRead = recorder.read(buffer, 0, bufferSize);
+                    int byteRead = readAudio(buffer);
                     if (byteRead <= 0) {
                         break;
                     }
-                    StreamingRecognizeRequest audioRequest = StreamingRecognizeRequest.newBuilder()
-                            .setAudioContent(ByteString.copyFrom(buffer, 0, byteRead))
-                            .build();
-                    clientStream.send(audioRequest);
-                    if (!canceled) {
-                        if (this.request.bufferOut) {
-                            tryNotifyAudioBuffer(buffer, byteRead);
+                    onAudioCaptured(buffer, byteRead);
+                    sendAudio(session, buffer);
+                    notifyAudio(buffer);
+                }
+            } finally {
+                closeStream(client, session, buffer);
+            }
+        }
+
+        /**
+         * Opens stream N+1 shortly before stream N reaches the session limit, replays the
+         * last carried over audio into it and only then closes stream N, so no audio is lost
+         * while the next stream connects.
+         */
+        private void startRecognitionGapless(@NonNull SpeechClient client, @NonNull ByteBuffer buffer) {
+            carryOver = CarryOverBuffer.forDuration(sampleRate, channels, request.carryOverMillis);
+            byte[] replay = new byte[carryOver.capacity()];
+            StreamSession current = newStream(client);
+            StreamSession next = null;
+            long openNextAfter = 0;
+            try {
+                while (!stopped && !canceled) {
+                    if (current.failure != null) {
+                        current = reconnect(client, current, buffer);
+                        if (current == null) {
+                            return;
                         }
-                        if (this.request.rmsDBOut) {
-                            rmsCounter = tryNotifyRmsDB(rmsCounter, buffer, byteRead);
+                    }
+                    if (next != null && next.failure != null) {
+                        // open it again later, the current stream still has time
+                        next.closeSend();
+                        next = null;
+                        openNextAfter = System.currentTimeMillis() + retry.delayMillis(0);
+                    }
+                    long elapsed = current.elapsed();
+                    if (next == null && elapsed > MAX_RECOGNITION_SESSION_TIME - ROLLOVER_LEAD_TIME
+                            && System.currentTimeMillis() >= openNextAfter) {
+                        next = newStream(client);
+                    }
+                    if (next != null && elapsed > MAX_RECOGNITION_SESSION_TIME) {
+                        int replayLength = request.carryOverMillis > 0 ? carryOver.read(replay) : 0;
+                        // the stream was opened earlier, its audio starts with what is sent now
+                        next.audioOffsetBytes = capturedBytes - replayLength;
+                        if (replayLength > 0) {
+                            next.send(replay, 0, replayLength);
                         }
+                        current.closeSend();
+                        current = next;
+                        next = null;
+                    }
+                    int byteRead = readAudio(buffer);
+                    if (byteRead <= 0) {
+                        break;
                     }
+                    onAudioCaptured(buffer, byteRead);
+                    sendAudio(current, buffer);
+                    notifyAudio(buffer);
                 }
-                clientStream.closeSend();
             } finally {
-                if (client != null) {
-                    client.close();
+                closeStream(client, current, buffer);
+                if (next != null) {
+                    next.closeSend();
                 }
             }
         }
 
-        private void tryNotifyAudioBuffer(byte[] buffer, int length) {
-            byte[] readBuffer = new byte[length]; // prevent stale buffer
-            System.arraycopy(buffer, 0, readBuffer, 0, length);
-            notifyAudioBuffer(readBuffer);
+        @NonNull
+        private StreamSession newStream(@NonNull SpeechClient client) {
+            return new StreamSession(client, generation++);
+        }
+
+        private void onAudioCaptured(@NonNull ByteBuffer buffer, int byteRead) {
+            capturedBytes += byteRead;
+            spoolAudio(buffer);
+            if (carryOver != null) {
+                carryOver.write(buffer);
+            }
+            if (journal != null) {
+                journal.write(buffer);
+            }
+            if (endpointer != null && endpointer.process(buffer)) {
+                Log.d("ASR", "end of speech after " + request.endSilenceMillis + " ms of silence");
+                requestStopListening();
+            }
+        }
+
+        /**
+         * Closes the stream, or, when it failed after the last check, the stream that replaces
+         * it, so the audio since the last final result is still recognized.
+         */
+        private void closeStream(@NonNull SpeechClient client, @Nullable StreamSession session, @NonNull ByteBuffer buffer) {
+            if (session == null) {
+                return;
+            }
+            session.closeSend();
+            if (session.failure != null && !canceled) {
+                session = reconnect(client, session, buffer);
+                if (session != null) {
+                    session.closeSend();
+                }
+            }
+            drainingStream = session;
+        }
+
+        /**
+         * Waits out the backoff while audio keeps being captured into the journal, then opens
+         * a new stream and replays the audio that has no final result yet.
+         *
+         * @return the new stream, or null when the session was canceled or has run out of
+         * attempts, which is reported as an error
+         */
+        @Nullable
+        private StreamSession reconnect(@NonNull SpeechClient client, @NonNull StreamSession failed, @NonNull ByteBuffer buffer) {
+            failed.closeSend();
+            int attempt = reconnectAttempt++;
+            if (attempt >= request.reconnectAttempts) {
+                onStreamError(failed.failure);
+                return null;
+            }
+            long delay = retry.delayMillis(attempt);
+            METRICS.reconnects.incrementAndGet();
+            Log.w("ASR", "stream failed, reconnect " + (attempt + 1) + " in " + delay + " ms", failed.failure);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            // a stop skips the wait, the audio still has to be recognized
+            while (!stopped && !canceled && System.nanoTime() < deadline) {
+                int byteRead = readAudio(buffer);
+                if (byteRead <= 0) {
+                    break;
+                }
+                onAudioCaptured(buffer, byteRead);
+                notifyAudio(buffer);
+            }
+            if (canceled) {
+                return null;
+            }
+            StreamSession session = newStream(client);
+            replayJournal(session);
+            return session;
+        }
+
+        private void replayJournal(@NonNull StreamSession session) {
+            long end = capturedBytes;
+            long start = Math.max(finalizedBytes, end - journal.size());
+            if (start > finalizedBytes) {
+                Log.w("ASR", "journal too short, " + bytesToMillis(start - finalizedBytes) + " ms of audio lost");
+            }
+            session.audioOffsetBytes = start;
+            if (start >= end) {
+                return;
+            }
+            byte[] replay = new byte[(int) (end - start)];
+            int length = journal.read(replay);
+            int chunk = chunkSizer.maxChunkBytes();
+            for (int offset = 0; offset < length; offset += chunk) {
+                session.send(replay, offset, Math.min(chunk, length - offset));
+            }
+        }
+
+        private void openSpool() {
+            try {
+                spool = audioSpool(context, request.spoolMaxBytes).open(sampleRate, channels, request.language);
+            } catch (IOException e) {
+                Log.w("ASR", "cannot open audio spool", e);
+            }
         }
 
-        private int tryNotifyRmsDB(int rmsCounter, byte[] buffer, int length) {
-            if (rmsCounter > 3) {
-                rmsCounter = 0;
+        /**
+         * Spooling stops when the disk fails, recognition goes on.
+         */
+        private void spoolAudio(@NonNull ByteBuffer buffer) {
+            AudioSpool.Session session = spool;
+            if (session == null) {
+                return;
+            }
+            try {
+                session.write(buffer);
+            } catch (IOException e) {
+                Log.w("ASR", "cannot write audio spool", e);
+                session.close(false);
+                spool = null;
+            }
+        }
+
+        private void recordCaptureToFinal(long endBytes) {
+            AudioCaptureThread capture = captureThread;
+            if (!realTime || endBytes < 0 || capture == null) {
+                return;
+            }
+            long captureTime = capture.captureTimeNanos(endBytes);
+            if (captureTime >= 0) {
+                METRICS.captureToFinal.recordNanos(Math.max(0, System.nanoTime() - captureTime));
+            }
+        }
+
+        /**
+         * @return position in the session audio where the result ends, or -1 when unknown.
+         * With voice activity detection the stream does not get all audio, so its times do
+         * not map to the session audio.
+         */
+        private long resultEndBytes(@NonNull StreamSession session, @NonNull StreamingRecognitionResult streamResult) {
+            if (vadGate != null || !streamResult.hasResultEndTime()) {
+                return -1;
+            }
+            long endMillis = toMillis(streamResult.getResultEndTime());
+            return session.audioOffsetBytes + endMillis * sampleRate / 1000 * channels * 2;
+        }
+
+        private void sendAudio(@NonNull StreamSession session, @NonNull ByteBuffer buffer) {
+            if (!realTime) {
+                session.awaitSendReady();
+            }
+            if (vadGate != null) {
+                vadGate.process(buffer, session);
             } else {
-                rmsCounter++;
+                session.send(buffer);
+            }
+        }
+
+        private void notifyAudio(@NonNull ByteBuffer buffer) {
+            if (!canceled) {
+                if (request.bufferOut) {
+                    tryNotifyAudioBuffer(buffer);
+                }
+                if (request.rmsDBOut) {
+                    tryNotifyRmsDB(buffer);
+                }
+            }
+        }
+
+        private void tryNotifyAudioBuffer(@NonNull ByteBuffer buffer) {
+            int length = buffer.remaining();
+            byte[] readBuffer = notifyBuffer;
+            if (readBuffer == null || readBuffer.length != length) {
+                readBuffer = new byte[length]; // chunk size changed
+                notifyBuffer = readBuffer;
             }
-            if (rmsCounter == 0) {
-                notifyVoiceDB(AudioUtils.calcRmsLevel(buffer, 0, length));
+            int position = buffer.position();
+            buffer.get(readBuffer, 0, length);
+            buffer.position(position);
+            notifyAudioBuffer(readBuffer);
+        }
+
+        private void tryNotifyRmsDB(@NonNull ByteBuffer buffer) {
+            if (levelMeter.process(buffer)) {
+                notifyVoiceDB(levelMeter.rmsDbfs());
             }
-            return rmsCounter;
         }
 
         public synchronized void requestStopListening() {
             if (stopped || canceled) {
                 return;
             }
+            stopTime = System.nanoTime();
             stopped = true;
             canceled = false;
             cancelAutoStopTimer();
+            AudioRingBuffer buffer = ringBuffer;
+            if (buffer != null) {
+                // do not wait for the rest of the chunk, send what there is
+                buffer.wakeConsumer();
+            }
         }
 
-        private synchronized void requestCancelListening() {
-            if (stopped || canceled) {
-                return;
+        /**
+         * Also ends the wait for the final results of a stopped session.
+         */
+        private void requestCancelListening() {
+            synchronized (this) {
+                if (canceled) {
+                    return;
+                }
+                canceled = true;
+                cancelAutoStopTimer();
+            }
+            synchronized (resultLock) {
+                resultLock.notifyAll();
+            }
+            AudioRingBuffer buffer = ringBuffer;
+            if (buffer != null) {
+                buffer.wakeConsumer();
             }
-            stopped = false;
-            canceled = true;
-            cancelAutoStopTimer();
         }
 
-        private void scheduleAutoStopTimer(final long delay) {
-            cancelAutoStopTimer();
-            timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    requestStopListening();
-                }
-            }, delay);
+        private void scheduleAutoStopTimer(long delay) {
+            if (autoStop.isArmed()) {
+                METRICS.autoStopRearms.incrementAndGet();
+            }
+            autoStop.arm(delay, TimeUnit.MILLISECONDS);
         }
 
         private void cancelAutoStopTimer() {
-            Timer timer = this.timer;
-            this.timer = null;
-            if (timer != null) {
-                timer.cancel();
+            autoStop.cancel();
+        }
+
+        /**
+         * Records the time to the first audio of the session and the gap between the last
+         * audio of a stream and the first audio of the next one.
+         */
+        private void onAudioSent(@NonNull StreamSession session, long sendStart, long sendEnd) {
+            if (!audioSent) {
+                audioSent = true;
+                METRICS.firstAudio.recordNanos(sendStart - listenStartTime);
             }
+            if (!session.audioSent) {
+                session.audioSent = true;
+                if (session.generation > 0) {
+                    METRICS.rolloverGap.recordNanos(sendStart - lastAudioSentTime);
+                }
+            }
+            lastAudioSentTime = sendEnd;
         }
-    }
 
-    private static class DummyCredential extends Credentials {
+        /**
+         * One {@code StreamingRecognize} call, made with the plain gRPC API on the pooled
+         * client's channel, which reports when flow control accepts messages again.
+         */
+        private class StreamSession implements ClientResponseObserver<StreamingRecognizeRequest, StreamingRecognizeResponse>,
+                AudioSink, AudioEncoder.Output {
+            private final int generation;
+            private final long startTime;
+            private ClientCallStreamObserver<StreamingRecognizeRequest> requests;
+            private final StreamingRecognizeRequest.Builder audioRequest = StreamingRecognizeRequest.newBuilder();
+            private final AudioEncoder encoder;
+            private volatile long sentBytes;
+            /**
+             * Position in the session audio of the first audio of this stream.
+             */
+            private volatile long audioOffsetBytes;
+            private boolean audioSent;
+            private volatile boolean closed;
+            /**
+             * Set when the stream failed with an error worth reconnecting for.
+             */
+            private volatile Throwable failure;
+            /**
+             * Notified when flow control accepts messages again and when the stream closes.
+             */
+            private final Object sendReadyLock = new Object();
+
+            StreamSession(@NonNull SpeechClient client, int generation) {
+                this.generation = generation;
+                this.startTime = System.currentTimeMillis();
+                this.audioOffsetBytes = capturedBytes;
+                this.encoder = AudioEncoders.create(request.encoding, sampleRate, channels);
+                onStreamOpened();
+                Channel channel = SpeechClientPool.getInstance().channel(client);
+                // sets requests before returning, see beforeStart
+                ClientCalls.asyncBidiStreamingCall(channel.newCall(SpeechMethods.STREAMING_RECOGNIZE, CallOptions.DEFAULT), this);
+                METRICS.streams.incrementAndGet();
+                RecognitionConfig config = RecognitionConfig.newBuilder()
+                        .setEncoding(encoder != null ? encoder.encoding() : RecognitionConfig.AudioEncoding.LINEAR16)
+                        .setAudioChannelCount(channels)
+                        .setMaxAlternatives(request.maxAlternatives)
+                        .setLanguageCode(request.language)
+                        .setSampleRateHertz(sampleRate)
+                        .setEnableWordTimeOffsets(request.wordTimeOffsets)
+                        .build();
+                StreamingRecognitionConfig streamConfig = StreamingRecognitionConfig.newBuilder()
+                        .setInterimResults(request.interimResults)
+                        .setSingleUtterance(request.singleUtterance)
+                        .setConfig(config)
+                        .build();
+                requests.onNext(StreamingRecognizeRequest.newBuilder()
+                        .setStreamingConfig(streamConfig)
+                        .build());
+            }
 
-        @Override
-        public String getAuthenticationType() {
-            return "dummy";
-        }
+            /**
+             * @return time since the stream opened, or the duration of the audio sent when
+             * that is longer, as when a file is streamed faster than real time
+             */
+            long elapsed() {
+                return Math.max(System.currentTimeMillis() - startTime, sentMillis());
+            }
 
-        @Override
-        public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
-            return Collections.emptyMap();
-        }
+            /**
+             * @return duration of the audio sent to this stream
+             */
+            long sentMillis() {
+                return sentBytes * 1000 / (sampleRate * channels * 2);
+            }
 
-        @Override
-        public boolean hasRequestMetadata() {
-            return false;
-        }
+            /**
+             * Waits until gRPC flow control accepts the next message, so audio that is
+             * available faster than real time is sent as fast as the service reads it.
+             */
+            void awaitSendReady() {
+                long deadline = System.nanoTime() + SEND_READY_TIMEOUT_NANOS;
+                synchronized (sendReadyLock) {
+                    while (!requests.isReady() && !closed && failure == null && !canceled) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return;
+                        }
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(sendReadyLock, remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
 
-        @Override
-        public boolean hasRequestMetadataOnly() {
-            return false;
-        }
+            @Override
+            public void beforeStart(ClientCallStreamObserver<StreamingRecognizeRequest> requests) {
+                this.requests = requests;
+                requests.setOnReadyHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        wakeSender();
+                    }
+                });
+            }
 
-        @Override
-        public void refresh() throws IOException {
+            private void wakeSender() {
+                synchronized (sendReadyLock) {
+                    sendReadyLock.notifyAll();
+                }
+            }
+
+            @Override
+            public void send(byte[] buffer, int offset, int length) {
+                sentBytes += length;
+                if (encoder != null) {
+                    encoder.encode(buffer, offset, length, this);
+                } else {
+                    write(buffer, offset, length);
+                }
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) {
+                sendAudioRequest(audioRequest.setAudioContent(ByteString.copyFrom(data, offset, length)).build());
+            }
+
+            /**
+             * Sends the remaining bytes of a pooled buffer. The audio is copied into the
+             * message, as a transport may keep the message after {@code send} returns, while
+             * the buffer goes back to the pool.
+             */
+            @Override
+            public void send(@NonNull ByteBuffer buffer) {
+                sentBytes += buffer.remaining();
+                if (encoder != null) {
+                    encoder.encode(buffer, this);
+                    return;
+                }
+                int position = buffer.position();
+                ByteString audio = ByteString.copyFrom(buffer);
+                buffer.position(position);
+                sendAudioRequest(audioRequest.setAudioContent(audio).build());
+            }
+
+            private void sendAudioRequest(@NonNull StreamingRecognizeRequest audioRequest) {
+                boolean backlogged = !requests.isReady();
+                long sendStart = System.nanoTime();
+                requests.onNext(audioRequest);
+                long sendEnd = System.nanoTime();
+                METRICS.chunkSend.recordNanos(sendEnd - sendStart);
+                chunkSizer.onSend(sendEnd - sendStart, backlogged);
+                onAudioSent(this, sendStart, sendEnd);
+            }
+
+            void closeSend() {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                }
+                if (encoder != null) {
+                    try {
+                        encoder.finish(this);
+                    } finally {
+                        encoder.release();
+                    }
+                }
+                requests.onCompleted();
+            }
 
+            @Override
+            public void onNext(StreamingRecognizeResponse response) {
+                onStreamResponse(this, response);
+            }
+
+            /**
+             * The recognition thread notices the failure of a stream it still sends to before
+             * its next chunk, or when it closes the stream, and of the last stream after a stop
+             * while it waits for the final results. A stream already replaced by a rollover
+             * leaves its audio to the replacement.
+             */
+            @Override
+            public void onError(Throwable error) {
+                if (request.reconnectAttempts > 0 && !canceled && StreamRetry.isRetryable(error)) {
+                    if (!fail(error)) {
+                        Log.w("ASR", "stream failed after it was closed", error);
+                    }
+                    onStreamClosed();
+                    wakeSender();
+                    return;
+                }
+                onStreamClosed();
+                wakeSender();
+                onStreamError(error);
+            }
+
+            /**
+             * @return false when the stream was already closed
+             */
+            private synchronized boolean fail(@NonNull Throwable error) {
+                failure = error;
+                return !closed;
+            }
+
+            @Override
+            public void onCompleted() {
+                onStreamClosed();
+                wakeSender();
+            }
         }
     }
 }
@@ -0,0 +1,109 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One partial or final result of a recognition session, with every alternative the service
+ * returned. Word times are in milliseconds from the start of the session audio.
+ */
+public class RecognitionResult {
+    private final boolean isFinal;
+    private final float stability;
+    private final List<Alternative> alternatives;
+
+    RecognitionResult(boolean isFinal, float stability, @NonNull List<Alternative> alternatives) {
+        this.isFinal = isFinal;
+        this.stability = stability;
+        this.alternatives = Collections.unmodifiableList(alternatives);
+    }
+
+    public boolean isFinal() {
+        return isFinal;
+    }
+
+    /**
+     * @return for partial results, how likely the text is to stay the same, 0 to 1; 0 when
+     * not known
+     */
+    public float getStability() {
+        return stability;
+    }
+
+    /**
+     * @return the alternatives, most likely first; never empty
+     */
+    @NonNull
+    public List<Alternative> getAlternatives() {
+        return alternatives;
+    }
+
+    @NonNull
+    public String getTranscript() {
+        return alternatives.get(0).getTranscript();
+    }
+
+    public static class Alternative {
+        private final String transcript;
+        private final float confidence;
+        private final List<Word> words;
+
+        Alternative(@NonNull String transcript, float confidence, @NonNull List<Word> words) {
+            this.transcript = transcript;
+            this.confidence = confidence;
+            this.words = Collections.unmodifiableList(words);
+        }
+
+        @NonNull
+        public String getTranscript() {
+            return transcript;
+        }
+
+        /**
+         * @return 0 to 1, only set on final results; 0 when not known
+         */
+        public float getConfidence() {
+            return confidence;
+        }
+
+        /**
+         * @return the words with their times, on final results when word time offsets are
+         * enabled; empty otherwise
+         */
+        @NonNull
+        public List<Word> getWords() {
+            return words;
+        }
+    }
+
+    /**
+     * A recognized word. Its times count from the start of the session audio, or with voice
+     * activity detection, which leaves silence out, from the start of the stream.
+     */
+    public static class Word {
+        private final String word;
+        private final long startMillis;
+        private final long endMillis;
+
+        Word(@NonNull String word, long startMillis, long endMillis) {
+            this.word = word;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        @NonNull
+        public String getWord() {
+            return word;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getEndMillis() {
+            return endMillis;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Implemented by a {@link android.speech.RecognitionListener} that wants typed results. Such a
+ * listener receives {@link #onRecognitionResult} instead of {@code onPartialResults} and
+ * {@code onResults}, and no {@code Bundle} is created for them.
+ */
+public interface RecognitionResultListener {
+    /**
+     * Called for every partial and final result, on a network thread.
+     */
+    void onRecognitionResult(@NonNull RecognitionResult result);
+}
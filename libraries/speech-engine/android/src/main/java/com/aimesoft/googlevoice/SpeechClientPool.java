@@ -0,0 +1,293 @@
+package com.aimesoft.googlevoice;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.aimesoft.googlevoice.utils.SignatureUtils;
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.auth.Credentials;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.SpeechSettings;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.okhttp.OkHttpChannelBuilder;
+import io.grpc.stub.MetadataUtils;
+
+/**
+ * Keeps one {@link SpeechClient} and its gRPC channel per API key so that recognition
+ * sessions and 55 second rollovers do not pay for a new TLS handshake every time.
+ * Clients that are not used for {@link #setIdleTimeout(long) idle timeout} are shut down.
+ * <p>
+ * The endpoint can be overridden, for example to run against a local fake service:
+ * <ul>
+ * <li>{@code null}: the Google Cloud Speech endpoint</li>
+ * <li>{@code host:port}: another endpoint over TLS</li>
+ * <li>{@code plaintext:host:port}: an endpoint without TLS</li>
+ * <li>{@code inprocess:name}: an in-process gRPC server, see {@code FakeSpeechServer} in debug builds</li>
+ * </ul>
+ */
+public class SpeechClientPool {
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    private static final String SPEECH_HOST = "speech.googleapis.com";
+    private static final int SPEECH_PORT = 443;
+    public static final String IN_PROCESS_PREFIX = "inprocess:";
+    public static final String PLAINTEXT_PREFIX = "plaintext:";
+
+    private static final SpeechClientPool INSTANCE = new SpeechClientPool();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService scheduler = SpeechScheduler.get();
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    public static SpeechClientPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared client for the api key, creating it if needed. Every call must be
+     * balanced by {@link #release(String)}.
+     */
+    @NonNull
+    public SpeechClient acquire(@NonNull Context context, @NonNull String apiKey) throws IOException {
+        return acquire(context, apiKey, null);
+    }
+
+    /**
+     * Same as {@link #acquire(Context, String)} for the given endpoint, balanced by
+     * {@link #release(String, String)}.
+     */
+    @NonNull
+    public synchronized SpeechClient acquire(@NonNull Context context, @NonNull String apiKey, @Nullable String endpoint) throws IOException {
+        Entry entry = obtain(context, apiKey, endpoint);
+        entry.refs++;
+        return entry.client;
+    }
+
+    public void release(@NonNull String apiKey) {
+        release(apiKey, null);
+    }
+
+    public synchronized void release(@NonNull String apiKey, @Nullable String endpoint) {
+        String key = key(apiKey, endpoint);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        entry.refs = Math.max(0, entry.refs - 1);
+        entry.lastUsed = System.currentTimeMillis();
+        if (entry.refs == 0) {
+            scheduleIdleCheck(key, idleTimeout);
+        }
+    }
+
+    public void warmUp(@NonNull Context context, @NonNull String apiKey) throws IOException {
+        warmUp(context, apiKey, null);
+    }
+
+    /**
+     * Creates the client for the api key and starts connecting its channel in the background,
+     * so the next {@link #acquire(Context, String, String)} finds a ready connection.
+     */
+    public void warmUp(@NonNull Context context, @NonNull String apiKey, @Nullable String endpoint) throws IOException {
+        ManagedChannel channel;
+        synchronized (this) {
+            Entry entry = obtain(context, apiKey, endpoint);
+            entry.lastUsed = System.currentTimeMillis();
+            if (entry.refs == 0) {
+                scheduleIdleCheck(key(apiKey, endpoint), idleTimeout);
+            }
+            channel = entry.channel;
+        }
+        channel.getState(true);
+    }
+
+    /**
+     * @return the channel of a client returned by {@link #acquire(Context, String, String)},
+     * for calls that the client does not offer
+     */
+    @NonNull
+    public synchronized Channel channel(@NonNull SpeechClient client) {
+        for (Entry entry : entries.values()) {
+            if (entry.client == client) {
+                return entry.channel;
+            }
+        }
+        throw new IllegalArgumentException("client not from this pool");
+    }
+
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = Math.max(0, idleTimeout);
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Closes every idle client now. Clients still in use are closed once released.
+     */
+    public synchronized void evictIdle() {
+        for (String key : new HashMap<>(entries).keySet()) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.refs == 0) {
+                entries.remove(key);
+                entry.close();
+            }
+        }
+    }
+
+    @NonNull
+    private Entry obtain(@NonNull Context context, @NonNull String apiKey, @Nullable String endpoint) throws IOException {
+        String key = key(apiKey, endpoint);
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.channel.isShutdown()) {
+            return entry;
+        }
+        long start = System.nanoTime();
+        entry = createEntry(context.getApplicationContext(), apiKey, endpoint);
+        SpeechMetrics.getInstance().clientCreation.recordNanos(System.nanoTime() - start);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    @NonNull
+    private static String key(@NonNull String apiKey, @Nullable String endpoint) {
+        return endpoint == null || endpoint.isEmpty() ? apiKey : endpoint + " " + apiKey;
+    }
+
+    private void scheduleIdleCheck(@NonNull final String key, long delay) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                closeIfIdle(key);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeIfIdle(@NonNull String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.refs > 0) {
+            return;
+        }
+        long idle = System.currentTimeMillis() - entry.lastUsed;
+        if (idle < idleTimeout) {
+            scheduleIdleCheck(key, idleTimeout - idle);
+            return;
+        }
+        entries.remove(key);
+        entry.close();
+    }
+
+    /**
+     * The headers are attached by the channel, as a fixed transport channel is not given the
+     * client's header provider.
+     */
+    @NonNull
+    private static ManagedChannel createChannel(@Nullable String endpoint, @NonNull Map<String, String> headers) {
+        ManagedChannelBuilder<?> builder;
+        if (endpoint == null || endpoint.isEmpty()) {
+            builder = OkHttpChannelBuilder.forAddress(SPEECH_HOST, SPEECH_PORT).useTransportSecurity();
+        } else if (endpoint.startsWith(IN_PROCESS_PREFIX)) {
+            builder = InProcessChannelBuilder.forName(endpoint.substring(IN_PROCESS_PREFIX.length()));
+        } else if (endpoint.startsWith(PLAINTEXT_PREFIX)) {
+            builder = OkHttpChannelBuilder.forTarget(endpoint.substring(PLAINTEXT_PREFIX.length())).usePlaintext();
+        } else {
+            builder = OkHttpChannelBuilder.forTarget(endpoint).useTransportSecurity();
+        }
+        Metadata metadata = new Metadata();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getValue() == null) {
+                // e.g. no certificate header for a package without a signature
+                continue;
+            }
+            metadata.put(Metadata.Key.of(header.getKey(), Metadata.ASCII_STRING_MARSHALLER), header.getValue());
+        }
+        builder.intercept(MetadataUtils.newAttachHeadersInterceptor(metadata));
+        // failed streams are reconnected by the recognition thread, which replays its own audio
+        return builder.disableRetry().build();
+    }
+
+    @NonNull
+    private static Entry createEntry(@NonNull Context context, @NonNull String apiKey, @Nullable String endpoint) throws IOException {
+        Map<String, String> headers = SignatureUtils.signatureHeaders(context, apiKey);
+        ManagedChannel channel = createChannel(endpoint, headers);
+        SpeechSettings settings = SpeechSettings.newBuilder()
+                .setTransportChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+                .setCredentialsProvider(new FixedCredentialsProvider() {
+                    @Override
+                    public Credentials getCredentials() {
+                        return new DummyCredential();
+                    }
+                })
+                .build();
+        try {
+            return new Entry(channel, SpeechClient.create(settings));
+        } catch (IOException e) {
+            channel.shutdownNow();
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        private final ManagedChannel channel;
+        private final SpeechClient client;
+        private int refs;
+        private long lastUsed;
+
+        Entry(@NonNull ManagedChannel channel, @NonNull SpeechClient client) {
+            this.channel = channel;
+            this.client = client;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        void close() {
+            client.close();
+            channel.shutdown();
+        }
+    }
+
+    private static class DummyCredential extends Credentials {
+
+        @Override
+        public String getAuthenticationType() {
+            return "dummy";
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public boolean hasRequestMetadata() {
+            return false;
+        }
+
+        @Override
+        public boolean hasRequestMetadataOnly() {
+            return false;
+        }
+
+        @Override
+        public void refresh() throws IOException {
+
+        }
+    }
+}
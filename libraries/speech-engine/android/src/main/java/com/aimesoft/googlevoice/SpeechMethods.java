@@ -0,0 +1,34 @@
+package com.aimesoft.googlevoice;
+
+import com.google.cloud.speech.v1.RecognizeRequest;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * gRPC descriptors of the Speech methods that are called, or served, without the generated
+ * stubs, which the client library does not ship.
+ */
+public final class SpeechMethods {
+    public static final String SERVICE_NAME = "google.cloud.speech.v1.Speech";
+    public static final MethodDescriptor<StreamingRecognizeRequest, StreamingRecognizeResponse> STREAMING_RECOGNIZE =
+            MethodDescriptor.<StreamingRecognizeRequest, StreamingRecognizeResponse>newBuilder()
+                    .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "StreamingRecognize"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(StreamingRecognizeRequest.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(StreamingRecognizeResponse.getDefaultInstance()))
+                    .build();
+    public static final MethodDescriptor<RecognizeRequest, RecognizeResponse> RECOGNIZE =
+            MethodDescriptor.<RecognizeRequest, RecognizeResponse>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "Recognize"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(RecognizeRequest.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(RecognizeResponse.getDefaultInstance()))
+                    .build();
+
+    private SpeechMethods() {
+    }
+}
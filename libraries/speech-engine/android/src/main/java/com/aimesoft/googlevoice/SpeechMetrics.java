@@ -0,0 +1,118 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.utils.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide timings of recognition sessions, for finding where latency comes from. Session
+ * timings are measured from {@code startListening}.
+ */
+public class SpeechMetrics {
+    private static final SpeechMetrics INSTANCE = new SpeechMetrics();
+
+    final LatencyHistogram firstAudio = new LatencyHistogram();
+    final LatencyHistogram firstPartial = new LatencyHistogram();
+    final LatencyHistogram firstFinal = new LatencyHistogram();
+    final LatencyHistogram chunkSend = new LatencyHistogram();
+    final LatencyHistogram clientCreation = new LatencyHistogram();
+    final LatencyHistogram rolloverGap = new LatencyHistogram();
+    final LatencyHistogram autoStopLateness = new LatencyHistogram();
+    final LatencyHistogram autoStopIdle = new LatencyHistogram();
+    /**
+     * Audio sent to a stream but not yet covered by the result received.
+     */
+    final LatencyHistogram resultLag = new LatencyHistogram();
+    /**
+     * From a stop to the last final result, or to the promotion of the last partial one.
+     */
+    final LatencyHistogram stopToFinal = new LatencyHistogram();
+    /**
+     * From the capture of the last audio a final result covers to its arrival.
+     */
+    final LatencyHistogram captureToFinal = new LatencyHistogram();
+    final AtomicLong sessions = new AtomicLong();
+    final AtomicLong streams = new AtomicLong();
+    final AtomicLong droppedSamples = new AtomicLong();
+    final AtomicLong captureOverruns = new AtomicLong();
+    /**
+     * Audio dropped by {@code AudioRecord} itself, not read in time.
+     */
+    final AtomicLong recorderOverruns = new AtomicLong();
+    final AtomicLong autoStopRearms = new AtomicLong();
+    final AtomicLong reconnects = new AtomicLong();
+    final AtomicLong promotedFinals = new AtomicLong();
+
+    private final Map<String, LatencyHistogram> histograms;
+
+    private SpeechMetrics() {
+        Map<String, LatencyHistogram> map = new LinkedHashMap<>();
+        map.put("startToFirstAudio", firstAudio);
+        map.put("startToFirstPartial", firstPartial);
+        map.put("startToFirstFinal", firstFinal);
+        map.put("chunkSend", chunkSend);
+        map.put("clientCreation", clientCreation);
+        map.put("rolloverGap", rolloverGap);
+        map.put("autoStopLateness", autoStopLateness);
+        map.put("autoStopIdle", autoStopIdle);
+        map.put("resultLag", resultLag);
+        map.put("stopToFinal", stopToFinal);
+        map.put("captureToFinal", captureToFinal);
+        histograms = Collections.unmodifiableMap(map);
+    }
+
+    public static SpeechMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts 16 bit samples, of any channel, that were captured but never sent.
+     */
+    public void addDroppedSamples(long samples) {
+        droppedSamples.addAndGet(samples);
+    }
+
+    /**
+     * @return the histograms by name, in a stable order
+     */
+    @NonNull
+    public Map<String, LatencyHistogram> histograms() {
+        return histograms;
+    }
+
+    /**
+     * @return a copy of the counters by name
+     */
+    @NonNull
+    public Map<String, Long> counters() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("sessions", sessions.get());
+        map.put("streams", streams.get());
+        map.put("droppedSamples", droppedSamples.get());
+        map.put("captureOverruns", captureOverruns.get());
+        map.put("recorderOverruns", recorderOverruns.get());
+        map.put("autoStopRearms", autoStopRearms.get());
+        map.put("reconnects", reconnects.get());
+        map.put("promotedFinals", promotedFinals.get());
+        return map;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        sessions.set(0);
+        streams.set(0);
+        droppedSamples.set(0);
+        captureOverruns.set(0);
+        recorderOverruns.set(0);
+        autoStopRearms.set(0);
+        reconnects.set(0);
+        promotedFinals.set(0);
+    }
+}
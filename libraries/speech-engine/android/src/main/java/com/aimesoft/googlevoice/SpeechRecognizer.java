@@ -17,6 +17,12 @@ public interface SpeechRecognizer {
 
     void startListening(Intent intent);
 
+    /**
+     * Does ahead of time the setup of {@link #startListening(Intent)} that does not need the
+     * microphone to be recording, for the same options.
+     */
+    void prepare(Intent intent);
+
     void destroy();
 
     void setRecognitionListener(RecognitionListener listener);
@@ -0,0 +1,35 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One daemon thread shared by every timer of the speech engine: auto stop deadlines, idle
+ * client eviction and event batching. Tasks must be short and must not block.
+ */
+public final class SpeechScheduler {
+    private static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "speech-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        // cancelled deadlines are dropped right away instead of waiting in the queue
+        INSTANCE.setRemoveOnCancelPolicy(true);
+    }
+
+    private SpeechScheduler() {
+    }
+
+    @NonNull
+    public static ScheduledExecutorService get() {
+        return INSTANCE;
+    }
+}
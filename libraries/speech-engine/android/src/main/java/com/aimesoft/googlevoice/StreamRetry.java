@@ -0,0 +1,77 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import io.grpc.Status;
+
+/**
+ * Decides which recognition stream errors are worth reconnecting for, and how long to wait
+ * before each attempt.
+ * <p>
+ * Network trouble, such as UNAVAILABLE, DEADLINE_EXCEEDED, ABORTED, INTERNAL (which a stream
+ * reset by the server maps to) or an UNKNOWN error caused by an I/O failure, is retried. Errors
+ * that a new stream would hit again, such as a bad api key, permission, quota or request, end
+ * the session.
+ */
+class StreamRetry {
+    private static final long BASE_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 4000;
+
+    private final Random random = new Random();
+
+    static boolean isRetryable(@NonNull Throwable error) {
+        switch (code(error)) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+                return true;
+            case INTERNAL:
+                return true;
+            case UNKNOWN:
+                return isIoFailure(error);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: half of the delay is fixed, the other half random, so
+     * that clients that lost the network together do not reconnect together.
+     *
+     * @param attempt 0 for the first reconnect
+     */
+    long delayMillis(int attempt) {
+        long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (delay - half));
+        }
+    }
+
+    @NonNull
+    private static StatusCode.Code code(@NonNull Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ApiException) {
+                return ((ApiException) t).getStatusCode().getCode();
+            }
+        }
+        Status status = Status.fromThrowable(error);
+        return StatusCode.Code.valueOf(status.getCode().name());
+    }
+
+    private static boolean isIoFailure(@Nullable Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
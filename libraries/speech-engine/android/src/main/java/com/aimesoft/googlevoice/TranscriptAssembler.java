@@ -0,0 +1,62 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The transcript of a session: the committed final results followed by the current partial
+ * result. Each result is turned into the change from the previous text, which starts at the
+ * first char that differs and runs to the end, so the work is proportional to the changed
+ * tail and not to the transcript.
+ */
+class TranscriptAssembler {
+    private final String separator;
+    private final StringBuilder committed = new StringBuilder();
+    private String tail = "";
+
+    /**
+     * @param separator put between results, e.g. a space
+     */
+    TranscriptAssembler(@NonNull String separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Replaces the partial result with {@code text}, and commits it when final.
+     *
+     * @return the change, or null when the text is the same
+     */
+    @Nullable
+    synchronized TranscriptDelta update(@NonNull String text, boolean isFinal) {
+        String newTail = text.isEmpty() || committed.length() == 0 ? text : separator + text;
+        int prefix = commonPrefix(tail, newTail);
+        TranscriptDelta delta = null;
+        if (prefix < tail.length() || prefix < newTail.length()) {
+            delta = new TranscriptDelta(committed.length() + prefix, tail.length() - prefix, newTail.substring(prefix));
+        }
+        if (isFinal) {
+            committed.append(newTail);
+            tail = "";
+        } else {
+            tail = newTail;
+        }
+        return delta;
+    }
+
+    @NonNull
+    synchronized String text() {
+        return committed + tail;
+    }
+
+    private static int commonPrefix(@NonNull String a, @NonNull String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--; // do not split a surrogate pair
+        }
+        return i;
+    }
+}
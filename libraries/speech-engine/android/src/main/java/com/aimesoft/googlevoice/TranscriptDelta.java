@@ -0,0 +1,45 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A change of the session transcript: the text from {@link #getOffset()} to the end, which is
+ * {@link #getRemovedLength()} chars long, is replaced by {@link #getInserted()}. Offsets count
+ * UTF-16 chars, like JavaScript string indices.
+ */
+public class TranscriptDelta {
+    private final int offset;
+    private final int removedLength;
+    private final String inserted;
+
+    TranscriptDelta(int offset, int removedLength, @NonNull String inserted) {
+        this.offset = offset;
+        this.removedLength = removedLength;
+        this.inserted = inserted;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRemovedLength() {
+        return removedLength;
+    }
+
+    @NonNull
+    public String getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return one delta with the effect of this delta followed by {@code next}
+     */
+    @NonNull
+    public TranscriptDelta then(@NonNull TranscriptDelta next) {
+        if (next.offset >= offset) {
+            String kept = inserted.substring(0, Math.min(inserted.length(), next.offset - offset));
+            return new TranscriptDelta(offset, removedLength, kept + next.inserted);
+        }
+        return new TranscriptDelta(next.offset, removedLength + offset - next.offset, next.inserted);
+    }
+}
@@ -0,0 +1,15 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Implemented by a {@link android.speech.RecognitionListener} that keeps the transcript of a
+ * session up to date from changes instead of from the full text of every result.
+ */
+public interface TranscriptListener {
+    /**
+     * Called on a network thread when a result changes the transcript. The transcript starts
+     * empty at every {@code startListening}.
+     */
+    void onTranscriptChanged(@NonNull TranscriptDelta delta);
+}
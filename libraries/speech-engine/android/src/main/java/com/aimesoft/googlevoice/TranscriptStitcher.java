@@ -0,0 +1,134 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removes the text a new recognition stream produces for audio that was replayed from the
+ * previous stream, by trimming the longest run of leading words that repeats the end of the
+ * last final transcript of the older stream. Only whole words are matched, and at least two
+ * of them, so that a word that merely starts like the previous one ends ("2" and "2pm") is
+ * kept. In languages written without spaces the longest run of leading characters that
+ * repeats the end is trimmed instead, at least three of them.
+ */
+class TranscriptStitcher {
+    private static final int MIN_OVERLAP_WORDS = 2;
+    private static final int MAX_OVERLAP_WORDS = 16;
+    private static final int MIN_OVERLAP_CHARS = 3;
+    private static final int MAX_OVERLAP_CHARS = 48;
+    private static final Pattern WORD = Pattern.compile("\\S+");
+
+    private final boolean spaced;
+    private int generation = -1;
+    private String previousFinal = "";
+    private int previousGeneration = -1;
+    private boolean stitched;
+
+    /**
+     * @param separator put between words of the language, empty when it is written without
+     *                  spaces
+     */
+    TranscriptStitcher(@NonNull String separator) {
+        this.spaced = !separator.isEmpty();
+    }
+
+    /**
+     * Trims {@code text} produced by the stream with the given generation.
+     */
+    @NonNull
+    synchronized String stitch(int generation, @NonNull String text, boolean isFinal) {
+        if (generation > this.generation) {
+            this.generation = generation;
+            stitched = false;
+        }
+        String result = text;
+        if (!stitched && generation > previousGeneration && previousGeneration >= 0) {
+            result = spaced ? trimOverlap(previousFinal, text) : trimCharacterOverlap(previousFinal, text);
+            if (isFinal) {
+                stitched = true;
+            }
+        }
+        if (isFinal && text.length() > 0) {
+            if (generation >= previousGeneration) {
+                previousFinal = text;
+                previousGeneration = generation;
+            }
+        }
+        return result;
+    }
+
+    synchronized void reset() {
+        generation = -1;
+        previousFinal = "";
+        previousGeneration = -1;
+        stitched = false;
+    }
+
+    @NonNull
+    static String trimOverlap(@NonNull String previous, @NonNull String next) {
+        String head = next.trim();
+        List<String> tailWords = new ArrayList<>();
+        for (Matcher m = WORD.matcher(previous); m.find(); ) {
+            tailWords.add(normalize(m.group()));
+        }
+        List<String> headWords = new ArrayList<>();
+        List<Integer> headEnds = new ArrayList<>();
+        for (Matcher m = WORD.matcher(head); m.find() && headWords.size() < MAX_OVERLAP_WORDS; ) {
+            headWords.add(normalize(m.group()));
+            headEnds.add(m.end());
+        }
+        int max = Math.min(tailWords.size(), headWords.size());
+        for (int k = max; k >= MIN_OVERLAP_WORDS; k--) {
+            if (tailWords.subList(tailWords.size() - k, tailWords.size()).equals(headWords.subList(0, k))) {
+                return head.substring(headEnds.get(k - 1)).trim();
+            }
+        }
+        return head;
+    }
+
+    @NonNull
+    static String trimCharacterOverlap(@NonNull String previous, @NonNull String next) {
+        String tail = strip(previous);
+        String head = next.trim();
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(tail.length(), head.length()));
+        for (int k = max; k >= MIN_OVERLAP_CHARS; k--) {
+            if (tail.regionMatches(tail.length() - k, head, 0, k)) {
+                return head.substring(k).trim();
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Ignores case and the punctuation around a word, which a stream may add at a cut.
+     */
+    @NonNull
+    private static String normalize(@NonNull String word) {
+        int start = 0;
+        int end = word.length();
+        while (start < end && !Character.isLetterOrDigit(word.charAt(start))) {
+            start++;
+        }
+        while (end > start && !Character.isLetterOrDigit(word.charAt(end - 1))) {
+            end--;
+        }
+        return word.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Drops the punctuation and spaces a stream may add at the end of its text.
+     */
+    @NonNull
+    private static String strip(@NonNull String text) {
+        int end = text.length();
+        while (end > 0 && !Character.isLetterOrDigit(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+}
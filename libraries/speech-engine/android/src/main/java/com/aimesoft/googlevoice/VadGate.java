@@ -0,0 +1,101 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.audio.CarryOverBuffer;
+import com.aimesoft.googlevoice.audio.VoiceActivityDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Holds back silent audio between the microphone and the recognition stream.
+ * <p>
+ * Speech is forwarded as it arrives and for a hangover window after it ends. While silent,
+ * the last pre-roll of audio is remembered and sent in front of the next speech chunk so
+ * the first syllable is not clipped, and a silent chunk is still sent every keep-alive
+ * interval so the stream does not time out.
+ * <p>
+ * Time is counted in audio, not on the clock, so a file read faster than real time is gated
+ * the same way as the microphone.
+ */
+class VadGate {
+    private final VoiceActivityDetector detector;
+    private final long hangoverBytes;
+    private final long keepAliveBytes;
+    private final CarryOverBuffer preRoll;
+    private final byte[] preRollBuffer;
+
+    private boolean speaking;
+    /**
+     * Audio positions in bytes: the end of the audio processed so far, of the last speech and
+     * of the last chunk sent.
+     */
+    private long position;
+    private long lastSpeechEnd;
+    private long lastSendEnd;
+
+    VadGate(@NonNull VoiceActivityDetector detector, int sampleRate, int channels,
+            int hangoverMillis, int preRollMillis, int keepAliveMillis) {
+        this.detector = detector;
+        long bytesPerSecond = (long) sampleRate * channels * 2;
+        this.hangoverBytes = bytesPerSecond * hangoverMillis / 1000;
+        this.keepAliveBytes = bytesPerSecond * keepAliveMillis / 1000;
+        // the first chunk is sent, so the stream gets audio at once
+        this.lastSendEnd = -keepAliveBytes;
+        this.preRoll = preRollMillis > 0 ? CarryOverBuffer.forDuration(sampleRate, channels, preRollMillis) : null;
+        this.preRollBuffer = preRoll != null ? new byte[preRoll.capacity()] : null;
+        detector.reset();
+    }
+
+    /**
+     * Sends the chunk to the sink if it is speech, part of the hangover, or due as a keep-alive.
+     *
+     * @return true if the chunk was sent
+     */
+    boolean process(@NonNull ByteBuffer buffer, @NonNull AudioSink sink) {
+        position += buffer.remaining();
+        if (detector.isSpeech(buffer)) {
+            if (!speaking) {
+                speaking = true;
+                flushPreRoll(sink);
+            }
+            lastSpeechEnd = position;
+            return send(buffer, sink);
+        }
+        if (speaking && position - lastSpeechEnd < hangoverBytes) {
+            return send(buffer, sink);
+        }
+        speaking = false;
+        if (position - lastSendEnd >= keepAliveBytes) {
+            if (preRoll != null) {
+                preRoll.clear();
+            }
+            return send(buffer, sink);
+        }
+        if (preRoll != null) {
+            preRoll.write(buffer);
+        }
+        return false;
+    }
+
+    boolean isSpeaking() {
+        return speaking;
+    }
+
+    private void flushPreRoll(@NonNull AudioSink sink) {
+        if (preRoll == null) {
+            return;
+        }
+        int length = preRoll.read(preRollBuffer);
+        preRoll.clear();
+        if (length > 0) {
+            sink.send(preRollBuffer, 0, length);
+        }
+    }
+
+    private boolean send(@NonNull ByteBuffer buffer, @NonNull AudioSink sink) {
+        sink.send(buffer);
+        lastSendEnd = position;
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles fixed size direct {@link ByteBuffer}s in little endian order, so that audio chunks
+ * do not allocate once the pool is warm.
+ */
+public class AudioBufferPool {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final AtomicLong allocationCount = new AtomicLong();
+
+    public AudioBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * @return a cleared buffer of {@link #bufferSize()} bytes
+     */
+    @NonNull
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            allocationCount.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && buffer.isDirect()) {
+            buffers.offer(buffer);
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return how many buffers were allocated because the pool was empty
+     */
+    public long allocationCount() {
+        return allocationCount.get();
+    }
+}
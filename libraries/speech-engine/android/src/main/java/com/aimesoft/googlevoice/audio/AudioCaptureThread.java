@@ -0,0 +1,140 @@
+package com.aimesoft.googlevoice.audio;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads the {@link AudioStream} as fast as it produces audio and writes it into an
+ * {@link AudioRingBuffer}, so that network sends never delay {@code AudioRecord} reads.
+ * Streams that are not {@link AudioStream#isRealTime() real time} wait for free space
+ * instead, so no audio is dropped.
+ * <p>
+ * When the stream knows when its audio was captured, the thread keeps the capture time of the
+ * audio last written, so that results can be timed from the capture of the audio they cover.
+ */
+public class AudioCaptureThread extends Thread {
+    private static final long SPACE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AudioStream recorder;
+    private final AudioRingBuffer ringBuffer;
+    private final AudioBufferPool bufferPool;
+    private final int readSize;
+    private final long bytesPerSecond;
+    private volatile boolean stopped;
+    private volatile IOException failure;
+
+    private long writtenBytes;
+    private long anchorPosition;
+    private long anchorNanos = -1;
+
+    public AudioCaptureThread(@NonNull AudioStream recorder, @NonNull AudioRingBuffer ringBuffer, @NonNull AudioBufferPool bufferPool) {
+        this(recorder, ringBuffer, bufferPool, bufferPool.bufferSize());
+    }
+
+    /**
+     * @param readSize bytes read from the stream at a time, at most the pool's buffer size. The
+     *                 reader of the ring buffer cannot get audio in smaller steps than this.
+     */
+    public AudioCaptureThread(@NonNull AudioStream recorder, @NonNull AudioRingBuffer ringBuffer,
+                              @NonNull AudioBufferPool bufferPool, int readSize) {
+        super("speech-audio-capture");
+        this.recorder = recorder;
+        this.ringBuffer = ringBuffer;
+        this.bufferPool = bufferPool;
+        this.readSize = Math.min(readSize, bufferPool.bufferSize());
+        this.bytesPerSecond = (long) recorder.sampleRate() * recorder.channels() * 2;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = bufferPool.acquire();
+        boolean realTime = recorder.isRealTime();
+        try {
+            recorder.start();
+        } catch (IOException e) {
+            Log.w("ASR", "cannot start audio", e);
+            failure = e;
+            ringBuffer.close();
+            bufferPool.release(buffer);
+            return;
+        }
+        try {
+            while (!stopped) {
+                int byteRead = recorder.read(buffer, readSize);
+                if (byteRead < 0) {
+                    break;
+                }
+                if (byteRead > 0 && !stopped) {
+                    if (!realTime) {
+                        awaitSpace(buffer.remaining());
+                    }
+                    int written = ringBuffer.write(buffer);
+                    onWritten(byteRead, written);
+                }
+            }
+        } finally {
+            recorder.stop();
+            ringBuffer.close();
+            bufferPool.release(buffer);
+        }
+    }
+
+    private synchronized void onWritten(int byteRead, int written) {
+        writtenBytes += written;
+        long readTime = recorder.lastReadTimeNanos();
+        if (readTime >= 0) {
+            // a partial write kept the start of the read, which was captured earlier
+            anchorPosition = writtenBytes;
+            anchorNanos = readTime - (byteRead - written) * NANOS_PER_SECOND / bytesPerSecond;
+        }
+    }
+
+    /**
+     * @param position bytes into the audio written to the ring buffer, as counted by its reader
+     * @return {@link System#nanoTime()} at which the audio at the position was captured, or -1
+     * when the stream has no capture times
+     */
+    public synchronized long captureTimeNanos(long position) {
+        if (anchorNanos < 0) {
+            return -1;
+        }
+        return anchorNanos - (anchorPosition - position) * NANOS_PER_SECOND / bytesPerSecond;
+    }
+
+    private void awaitSpace(int bytes) {
+        while (!stopped && ringBuffer.capacity() - ringBuffer.available() < bytes) {
+            ringBuffer.awaitSpace(bytes, SPACE_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Asks the thread to stop after the current read.
+     */
+    public void requestStop() {
+        stopped = true;
+        // ends a wait for space
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * @return why the stream could not be started, once the ring buffer is closed
+     */
+    @Nullable
+    public IOException failure() {
+        return failure;
+    }
+
+    @NonNull
+    public AudioRingBuffer ringBuffer() {
+        return ringBuffer;
+    }
+}
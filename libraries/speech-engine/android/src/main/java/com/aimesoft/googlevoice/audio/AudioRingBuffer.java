@@ -0,0 +1,248 @@
+package com.aimesoft.googlevoice.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer byte ring buffer between the capture thread and
+ * the network sender. A real time producer never blocks: audio that does not fit is dropped
+ * and counted as an overrun, so a slow network shows up in {@link #overrunCount()} instead of
+ * stalling {@code AudioRecord}. Other producers can wait for space with
+ * {@link #awaitSpace(int, long)}.
+ */
+public class AudioRingBuffer {
+    private final byte[] data;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private final AtomicLong overrunCount = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile Thread waiter;
+    private volatile Thread producer;
+    private volatile boolean wakeRequested;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity minimum capacity in bytes, rounded up to a power of two
+     */
+    public AudioRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        data = new byte[size];
+        mask = size - 1;
+    }
+
+    public static AudioRingBuffer forDuration(int sampleRate, int channels, int millis) {
+        long bytes = (long) sampleRate * channels * 2 * millis / 1000;
+        return new AudioRingBuffer((int) Math.min(Integer.MAX_VALUE / 2, bytes));
+    }
+
+    /**
+     * Producer side. Copies as much of the buffer as fits, in whole samples.
+     *
+     * @return number of bytes written
+     */
+    public int write(byte[] buffer, int offset, int length) {
+        long write = writePosition.get();
+        long read = readPosition.get();
+        int free = data.length - (int) (write - read);
+        int count = Math.min(length, free) & ~1;
+        if (count < length) {
+            overrunCount.incrementAndGet();
+            droppedBytes.addAndGet(length - count);
+        }
+        if (count > 0) {
+            int index = (int) (write & mask);
+            int first = Math.min(count, data.length - index);
+            System.arraycopy(buffer, offset, data, index, first);
+            System.arraycopy(buffer, offset + first, data, 0, count - first);
+            writePosition.lazySet(write + count);
+            wakeUp();
+        }
+        return count;
+    }
+
+    /**
+     * Producer side. Writes the remaining bytes of the buffer, advancing its position by
+     * the number of bytes written.
+     *
+     * @return number of bytes written
+     */
+    public int write(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        long write = writePosition.get();
+        long read = readPosition.get();
+        int free = data.length - (int) (write - read);
+        int count = Math.min(length, free) & ~1;
+        if (count < length) {
+            overrunCount.incrementAndGet();
+            droppedBytes.addAndGet(length - count);
+        }
+        if (count > 0) {
+            int index = (int) (write & mask);
+            int first = Math.min(count, data.length - index);
+            buffer.get(data, index, first);
+            buffer.get(data, 0, count - first);
+            writePosition.lazySet(write + count);
+            wakeUp();
+        }
+        return count;
+    }
+
+    /**
+     * Consumer side. Copies up to {@code length} available bytes without blocking.
+     *
+     * @return number of bytes read, or -1 when the buffer is closed and drained
+     */
+    public int read(byte[] buffer, int offset, int length) {
+        long read = readPosition.get();
+        int available = (int) (writePosition.get() - read);
+        if (available == 0) {
+            return closed && available() == 0 ? -1 : 0;
+        }
+        int count = Math.min(length, available);
+        int index = (int) (read & mask);
+        int first = Math.min(count, data.length - index);
+        System.arraycopy(data, index, buffer, offset, first);
+        System.arraycopy(data, 0, buffer, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        wakeProducer();
+        return count;
+    }
+
+    /**
+     * Consumer side. Clears the buffer and fills it with up to {@code length} available bytes
+     * without blocking. On return the buffer is flipped and ready to be read.
+     *
+     * @return number of bytes read, or -1 when the buffer is closed and drained
+     */
+    public int read(ByteBuffer buffer, int length) {
+        buffer.clear();
+        long read = readPosition.get();
+        int available = (int) (writePosition.get() - read);
+        if (available == 0) {
+            buffer.flip();
+            return closed && available() == 0 ? -1 : 0;
+        }
+        int count = Math.min(Math.min(length, buffer.capacity()), available);
+        int index = (int) (read & mask);
+        int first = Math.min(count, data.length - index);
+        buffer.put(data, index, first);
+        buffer.put(data, 0, count - first);
+        buffer.flip();
+        readPosition.lazySet(read + count);
+        wakeProducer();
+        return count;
+    }
+
+    /**
+     * Consumer side. Parks the calling thread until at least {@code bytes} are available,
+     * the buffer is closed, {@link #wakeConsumer()} is called or the timeout elapses.
+     *
+     * @return number of bytes available
+     */
+    public int await(int bytes, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        waiter = Thread.currentThread();
+        try {
+            while (true) {
+                int available = available();
+                if (available >= bytes || closed || wakeRequested) {
+                    wakeRequested = false;
+                    return available;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return available;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Producer side. Parks the calling thread until {@code bytes} can be written or the timeout
+     * elapses, for producers that must not drop audio. Reads by the consumer wake it.
+     *
+     * @return number of bytes free
+     */
+    public int awaitSpace(int bytes, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        producer = Thread.currentThread();
+        try {
+            while (true) {
+                int free = data.length - available();
+                if (free >= bytes) {
+                    return free;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return free;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            producer = null;
+        }
+    }
+
+    /**
+     * Producer side. Marks the end of the stream; the consumer drains what is left.
+     */
+    public void close() {
+        closed = true;
+        wakeUp();
+    }
+
+    /**
+     * Makes the pending {@link #await(int, long)}, or the next one, return at once, as when
+     * the consumer stops waiting for a full chunk.
+     */
+    public void wakeConsumer() {
+        wakeRequested = true;
+        wakeUp();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * @return fill level between 0 and 1
+     */
+    public float fillLevel() {
+        return available() / (float) data.length;
+    }
+
+    public long overrunCount() {
+        return overrunCount.get();
+    }
+
+    public long droppedBytes() {
+        return droppedBytes.get();
+    }
+
+    private void wakeProducer() {
+        Thread thread = producer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void wakeUp() {
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
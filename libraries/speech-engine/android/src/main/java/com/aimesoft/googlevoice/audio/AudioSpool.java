@@ -0,0 +1,515 @@
+package com.aimesoft.googlevoice.audio;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the audio of recognition sessions on disk until it has been recognized, so that it
+ * can be transcribed again after the process dies or the network fails.
+ * <p>
+ * Every session gets a directory with a {@code session.properties} file and raw PCM segments
+ * of a fixed size, {@code 000000.pcm}, {@code 000001.pcm}, ... Segments are only appended to,
+ * by a writer thread per session, and synced to disk at most once per sync interval and when
+ * they are full. A segment is deleted once final results cover all of its audio, and the whole
+ * directory when the session ends normally. When the spool grows over its limit the oldest
+ * segments are deleted first.
+ */
+public class AudioSpool {
+    public static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+    public static final int DEFAULT_SEGMENT_MILLIS = 30000;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL_MILLIS);
+    // audio queued for the writer thread, beyond which it is left out of the spool
+    private static final int WRITE_BUFFER_MILLIS = 10000;
+    private static final String PROPERTIES = "session.properties";
+    private static final String SEGMENT_SUFFIX = ".pcm";
+
+    /**
+     * Sessions being written by this process, which are not left over from a previous one.
+     */
+    private static final Set<String> ACTIVE = Collections.synchronizedSet(new HashSet<String>());
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentMillis;
+
+    public AudioSpool(@NonNull File directory) {
+        this(directory, DEFAULT_MAX_BYTES, DEFAULT_SEGMENT_MILLIS);
+    }
+
+    public AudioSpool(@NonNull File directory, long maxBytes, int segmentMillis) {
+        this.directory = directory;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.segmentMillis = Math.max(1000, segmentMillis);
+    }
+
+    /**
+     * Starts spooling a new session.
+     */
+    @NonNull
+    public Session open(int sampleRate, int channels, @Nullable String language) throws IOException {
+        String id = System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        File sessionDirectory = new File(directory, id);
+        if (!sessionDirectory.mkdirs()) {
+            throw new IOException("cannot create " + sessionDirectory);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("sampleRate", Integer.toString(sampleRate));
+        properties.setProperty("channels", Integer.toString(channels));
+        properties.setProperty("createdAt", Long.toString(System.currentTimeMillis()));
+        if (language != null) {
+            properties.setProperty("language", language);
+        }
+        FileOutputStream output = new FileOutputStream(new File(sessionDirectory, PROPERTIES));
+        try {
+            properties.store(output, null);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        ACTIVE.add(id);
+        long segmentBytes = (long) sampleRate * channels * 2 * segmentMillis / 1000;
+        Session session = new Session(id, sessionDirectory, segmentBytes & ~1L, sampleRate, channels);
+        evict(null);
+        session.start();
+        return session;
+    }
+
+    /**
+     * @return sessions left on disk by a process that ended before they were recognized,
+     * oldest first
+     */
+    @NonNull
+    public List<SpooledSession> pendingSessions() {
+        List<SpooledSession> sessions = new ArrayList<>();
+        File[] directories = directory.listFiles();
+        if (directories == null) {
+            return sessions;
+        }
+        for (File sessionDirectory : directories) {
+            if (!sessionDirectory.isDirectory() || ACTIVE.contains(sessionDirectory.getName())) {
+                continue;
+            }
+            SpooledSession session;
+            try {
+                session = SpooledSession.read(sessionDirectory);
+            } catch (IOException e) {
+                // may be readable later, only sessions known to be broken are deleted
+                Log.w("ASR", "cannot read spooled session " + sessionDirectory, e);
+                continue;
+            }
+            if (session == null) {
+                deleteDirectory(sessionDirectory);
+            } else {
+                sessions.add(session);
+            }
+        }
+        Collections.sort(sessions, new Comparator<SpooledSession>() {
+            @Override
+            public int compare(SpooledSession a, SpooledSession b) {
+                return a.createdAt < b.createdAt ? -1 : (a.createdAt == b.createdAt ? 0 : 1);
+            }
+        });
+        return sessions;
+    }
+
+    /**
+     * Deletes a session that is not being written.
+     */
+    public boolean delete(@NonNull String id) {
+        if (ACTIVE.contains(id) || id.contains(File.separator) || id.startsWith(".")) {
+            return false;
+        }
+        File sessionDirectory = new File(directory, id);
+        return sessionDirectory.isDirectory() && deleteDirectory(sessionDirectory);
+    }
+
+    /**
+     * Deletes the oldest segments until the spool fits in its limit, never the one being
+     * written.
+     */
+    private void evict(@Nullable File writing) {
+        File[] directories = directory.listFiles();
+        if (directories == null) {
+            return;
+        }
+        Arrays.sort(directories); // names start with the creation time
+        List<File> segments = new ArrayList<>();
+        long total = 0;
+        for (File sessionDirectory : directories) {
+            for (File segment : segments(sessionDirectory)) {
+                segments.add(segment);
+                total += segment.length();
+            }
+        }
+        for (File segment : segments) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (segment.equals(writing)) {
+                continue;
+            }
+            long length = segment.length();
+            if (segment.delete()) {
+                total -= length;
+                Log.w("ASR", "spool full, dropped " + segment);
+            }
+        }
+    }
+
+    @NonNull
+    private static List<File> segments(@NonNull File sessionDirectory) {
+        File[] files = sessionDirectory.listFiles();
+        List<File> segments = new ArrayList<>();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static boolean deleteDirectory(@NonNull File sessionDirectory) {
+        File[] files = sessionDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return sessionDirectory.delete();
+    }
+
+    /**
+     * The session being written. Audio is copied into a ring buffer by the recognition thread
+     * and written and synced to disk by the session's own writer thread, so a slow disk never
+     * delays sending. Audio that does not fit in the ring is left out of the spool.
+     */
+    public class Session {
+        private final String id;
+        private final File sessionDirectory;
+        private final long segmentBytes;
+        private final AudioRingBuffer ringBuffer;
+        private final Thread writer;
+        private volatile long committedBytes;
+        private volatile IOException failure;
+        private boolean keep;
+        private boolean closed;
+        private boolean writerDone;
+
+        // used by the writer thread only
+        private int segmentIndex = -1;
+        private File segmentFile;
+        private RandomAccessFile segment;
+        private FileChannel channel;
+        private long segmentLength;
+        private long lastSync;
+        private int committedSegments;
+
+        Session(@NonNull String id, @NonNull File sessionDirectory, long segmentBytes, int sampleRate, int channels) {
+            this.id = id;
+            this.sessionDirectory = sessionDirectory;
+            this.segmentBytes = segmentBytes;
+            this.ringBuffer = AudioRingBuffer.forDuration(sampleRate, channels, WRITE_BUFFER_MILLIS);
+            this.writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "speech-spool-writer");
+            this.writer.setDaemon(true);
+        }
+
+        @NonNull
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Queues the remaining bytes of the buffer for writing, without changing its position.
+         *
+         * @throws IOException when the writer thread failed, after which nothing is written
+         */
+        public void write(@NonNull ByteBuffer buffer) throws IOException {
+            IOException e = failure;
+            if (e != null) {
+                throw e;
+            }
+            int length = buffer.remaining();
+            int written = ringBuffer.write(buffer.duplicate());
+            if (written < length && ringBuffer.overrunCount() == 1) {
+                Log.w("ASR", "spool writer behind, audio left out of " + id);
+            }
+        }
+
+        /**
+         * Deletes the segments that end at or before {@code bytes} of session audio, as their
+         * audio has been recognized. The writer thread deletes them.
+         */
+        public void commit(long bytes) {
+            committedBytes = bytes;
+        }
+
+        /**
+         * Stops writing once the queued audio is on disk. The session is kept on disk for
+         * {@link #pendingSessions()} when {@code keep} is true, and deleted otherwise.
+         */
+        public void close(boolean keep) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                this.keep = keep;
+                if (!writerDone) {
+                    ringBuffer.close();
+                    return;
+                }
+            }
+            finish();
+        }
+
+        private void writeLoop() {
+            ByteBuffer chunk = ByteBuffer.allocate(ringBuffer.capacity() / 4);
+            try {
+                while (true) {
+                    ringBuffer.await(chunk.capacity(), SYNC_INTERVAL_NANOS);
+                    int read = ringBuffer.read(chunk, chunk.capacity());
+                    if (read < 0) {
+                        break;
+                    }
+                    if (read > 0) {
+                        append(chunk);
+                    }
+                    deleteCommitted();
+                    long now = System.currentTimeMillis();
+                    if (channel != null && now - lastSync >= SYNC_INTERVAL_MILLIS) {
+                        channel.force(false);
+                        lastSync = now;
+                    }
+                }
+                closeSegment();
+            } catch (IOException e) {
+                Log.w("ASR", "cannot write audio spool " + id, e);
+                failure = e;
+                try {
+                    closeSegment();
+                } catch (IOException ignored) {
+                }
+            }
+            synchronized (this) {
+                writerDone = true;
+                if (!closed) {
+                    return;
+                }
+            }
+            finish();
+        }
+
+        private void start() {
+            writer.start();
+        }
+
+        private void finish() {
+            if (!keep) {
+                deleteDirectory(sessionDirectory);
+            }
+            ACTIVE.remove(id);
+        }
+
+        private void append(@NonNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel == null || segmentLength >= segmentBytes) {
+                    rotate();
+                }
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), segmentBytes - segmentLength));
+                try {
+                    while (buffer.hasRemaining()) {
+                        segmentLength += channel.write(buffer);
+                    }
+                } finally {
+                    buffer.limit(limit);
+                }
+            }
+        }
+
+        private void deleteCommitted() {
+            int segments = (int) Math.min(committedBytes / segmentBytes, segmentIndex);
+            for (; committedSegments < segments; committedSegments++) {
+                new File(sessionDirectory, segmentName(committedSegments)).delete();
+            }
+        }
+
+        private void rotate() throws IOException {
+            closeSegment();
+            segmentIndex++;
+            segmentFile = new File(sessionDirectory, segmentName(segmentIndex));
+            segment = new RandomAccessFile(segmentFile, "rw");
+            channel = segment.getChannel();
+            segmentLength = 0;
+            evict(segmentFile);
+        }
+
+        private void closeSegment() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.force(false);
+            } finally {
+                segment.close();
+                channel = null;
+                segment = null;
+            }
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    @NonNull
+    private static String segmentName(int index) {
+        return String.format(Locale.US, "%06d%s", index, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * A session found on disk.
+     */
+    public static class SpooledSession {
+        private final String id;
+        private final long createdAt;
+        private final String language;
+        private final int sampleRate;
+        private final int channels;
+        private final List<File> segments;
+
+        SpooledSession(@NonNull String id, long createdAt, @Nullable String language, int sampleRate,
+                       int channels, @NonNull List<File> segments) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.language = language;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.segments = Collections.unmodifiableList(segments);
+        }
+
+        /**
+         * @return the session, or null when it has no audio or its properties are missing or
+         * malformed
+         * @throws IOException when the files cannot be read or repaired
+         */
+        @Nullable
+        static SpooledSession read(@NonNull File sessionDirectory) throws IOException {
+            File propertiesFile = new File(sessionDirectory, PROPERTIES);
+            if (!propertiesFile.isFile()) {
+                return null;
+            }
+            Properties properties = new Properties();
+            InputStream input = new FileInputStream(propertiesFile);
+            try {
+                properties.load(input);
+            } catch (IllegalArgumentException e) {
+                return null;
+            } finally {
+                input.close();
+            }
+            long createdAt;
+            int sampleRate;
+            int channels;
+            try {
+                createdAt = Long.parseLong(properties.getProperty("createdAt", "0"));
+                sampleRate = Integer.parseInt(properties.getProperty("sampleRate"));
+                channels = Integer.parseInt(properties.getProperty("channels"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (sampleRate <= 0 || channels <= 0) {
+                return null;
+            }
+            List<File> segments = new ArrayList<>();
+            for (File segment : segments(sessionDirectory)) {
+                long length = segment.length();
+                if ((length & 1) != 0) {
+                    // the process died in the middle of a sample
+                    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+                    try {
+                        file.setLength(length - 1);
+                    } finally {
+                        file.close();
+                    }
+                    length--;
+                }
+                if (length > 0) {
+                    segments.add(segment);
+                }
+            }
+            if (segments.isEmpty()) {
+                return null;
+            }
+            return new SpooledSession(sessionDirectory.getName(), createdAt, properties.getProperty("language"),
+                    sampleRate, channels, segments);
+        }
+
+        @NonNull
+        public String getId() {
+            return id;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        @Nullable
+        public String getLanguage() {
+            return language;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        /**
+         * @return the raw PCM segments not recognized yet, in order
+         */
+        @NonNull
+        public List<File> getSegments() {
+            return segments;
+        }
+
+        public long getDurationMillis() {
+            long bytes = 0;
+            for (File segment : segments) {
+                bytes += segment.length();
+            }
+            return bytes * 1000 / ((long) sampleRate * channels * 2);
+        }
+    }
+}
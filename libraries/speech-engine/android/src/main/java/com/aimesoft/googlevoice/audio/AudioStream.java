@@ -1,12 +1,26 @@
 package com.aimesoft.googlevoice.audio;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public interface AudioStream {
-    void start();
+    /**
+     * @throws IOException when the audio source cannot be opened
+     */
+    void start() throws IOException;
 
     void stop();
 
     int read(byte[] buffer, int offsetInByte, int length);
 
+    /**
+     * Reads up to {@code length} bytes into a direct buffer starting at index 0. On success
+     * the buffer position is 0 and its limit is the number of bytes read.
+     *
+     * @return number of bytes read, or a negative error code
+     */
+    int read(ByteBuffer buffer, int length);
+
     int sampleRate();
 
     int channels();
@@ -14,4 +28,16 @@ public interface AudioStream {
     int desireBufferSize();
 
     boolean stopped();
+
+    /**
+     * @return true when reads wait for audio to be produced in real time, false when audio
+     * is available faster, in which case readers must not drop what they cannot keep up with
+     */
+    boolean isRealTime();
+
+    /**
+     * @return {@link System#nanoTime()} at which the last frame returned by the latest read
+     * was captured, or -1 when the stream has no capture times
+     */
+    long lastReadTimeNanos();
 }
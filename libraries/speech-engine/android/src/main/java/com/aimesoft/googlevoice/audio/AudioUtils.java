@@ -1,20 +1,72 @@
 package com.aimesoft.googlevoice.audio;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class AudioUtils {
+    private static final float FULL_SCALE = 32768f;
+    private static final float MIN_DBFS = -96f;
+
     public static float calcRmsLevel(byte[] buffer) {
         return calcRmsLevel(buffer, 0, buffer.length);
     }
 
+    /**
+     * @return root mean square amplitude of little endian 16 bit samples, 0 to 32768
+     */
     public static float calcRmsLevel(byte[] buffer, int offset, int length) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length).order(ByteOrder.LITTLE_ENDIAN);
-        float samples = length / 2f;
-        float sum = 0f;
-        while (byteBuffer.hasRemaining()) {
-            sum += Math.abs(byteBuffer.getShort()) / samples;
+        int samples = length / 2;
+        long sum = 0;
+        for (int i = offset, end = offset + samples * 2; i < end; i += 2) {
+            int sample = (short) ((buffer[i] & 0xff) | (buffer[i + 1] << 8));
+            sum += sample * sample;
+        }
+        return samples == 0 ? 0f : (float) Math.sqrt((double) sum / samples);
+    }
+
+    /**
+     * Same as {@link #calcRmsLevel(byte[], int, int)} for the remaining bytes of a little
+     * endian buffer, without changing its position.
+     */
+    public static float calcRmsLevel(ByteBuffer buffer) {
+        int start = buffer.position();
+        int samples = buffer.remaining() / 2;
+        long sum = 0;
+        for (int i = start, end = start + samples * 2; i < end; i += 2) {
+            int sample = buffer.getShort(i);
+            sum += sample * sample;
+        }
+        return samples == 0 ? 0f : (float) Math.sqrt((double) sum / samples);
+    }
+
+    /**
+     * @return fraction of adjacent samples in the remaining bytes of a little endian buffer
+     * that change sign, without changing its position
+     */
+    public static float calcZeroCrossingRate(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start + (buffer.remaining() & ~1);
+        if (end - start < 4) {
+            return 0f;
+        }
+        int crossings = 0;
+        boolean negative = buffer.getShort(start) < 0;
+        for (int i = start + 2; i < end; i += 2) {
+            boolean current = buffer.getShort(i) < 0;
+            if (current != negative) {
+                crossings++;
+                negative = current;
+            }
+        }
+        return crossings / ((end - start) / 2f - 1);
+    }
+
+    /**
+     * Converts a sample amplitude to decibels relative to full scale.
+     */
+    public static float toDbfs(float amplitude) {
+        if (amplitude <= 0f) {
+            return MIN_DBFS;
         }
-        return sum;
+        return Math.max(MIN_DBFS, (float) (20 * Math.log10(amplitude / FULL_SCALE)));
     }
 }
@@ -0,0 +1,82 @@
+package com.aimesoft.googlevoice.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers the most recent bytes of audio so they can be replayed into a new recognition
+ * stream after a rollover.
+ */
+public class CarryOverBuffer {
+    private final byte[] data;
+    private int position;
+    private int size;
+
+    public CarryOverBuffer(int capacity) {
+        // keep whole 16 bit samples
+        data = new byte[Math.max(2, capacity - capacity % 2)];
+    }
+
+    public static CarryOverBuffer forDuration(int sampleRate, int channels, int millis) {
+        long bytes = (long) sampleRate * channels * 2 * millis / 1000;
+        return new CarryOverBuffer((int) Math.max(2, bytes));
+    }
+
+    public void write(byte[] buffer, int offset, int length) {
+        if (length >= data.length) {
+            System.arraycopy(buffer, offset + length - data.length, data, 0, data.length);
+            position = 0;
+            size = data.length;
+            return;
+        }
+        int first = Math.min(length, data.length - position);
+        System.arraycopy(buffer, offset, data, position, first);
+        System.arraycopy(buffer, offset + first, data, 0, length - first);
+        position = (position + length) % data.length;
+        size = Math.min(data.length, size + length);
+    }
+
+    /**
+     * Remembers the remaining bytes of the buffer without changing its position.
+     */
+    public void write(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.remaining();
+        if (length > data.length) {
+            buffer.position(start + length - data.length);
+            length = data.length;
+        }
+        int first = Math.min(length, data.length - position);
+        buffer.get(data, position, first);
+        buffer.get(data, 0, length - first);
+        buffer.position(start);
+        position = (position + length) % data.length;
+        size = Math.min(data.length, size + length);
+    }
+
+    /**
+     * Copies the remembered audio, oldest first, into {@code out}.
+     *
+     * @return number of bytes copied
+     */
+    public int read(byte[] out) {
+        int length = Math.min(size, out.length);
+        int start = (position - length + data.length) % data.length;
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(data, start, out, 0, first);
+        System.arraycopy(data, 0, out, first, length - first);
+        return length;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        position = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Energy and zero-crossing detector. A chunk is speech when its level is above the
+ * threshold, or slightly below it with the high zero-crossing rate of fricatives.
+ */
+public class EnergyVoiceActivityDetector implements VoiceActivityDetector {
+    public static final float DEFAULT_THRESHOLD_DB = -40f;
+    private static final float FRICATIVE_MARGIN_DB = 10f;
+    private static final float FRICATIVE_ZERO_CROSSING_RATE = 0.25f;
+
+    private final float thresholdDb;
+
+    public EnergyVoiceActivityDetector() {
+        this(DEFAULT_THRESHOLD_DB);
+    }
+
+    /**
+     * @param thresholdDb level in dBFS above which a chunk counts as speech
+     */
+    public EnergyVoiceActivityDetector(float thresholdDb) {
+        this.thresholdDb = thresholdDb;
+    }
+
+    @Override
+    public boolean isSpeech(@NonNull ByteBuffer buffer) {
+        float levelDb = AudioUtils.toDbfs(AudioUtils.calcRmsLevel(buffer));
+        if (levelDb >= thresholdDb) {
+            return true;
+        }
+        return levelDb >= thresholdDb - FRICATIVE_MARGIN_DB
+                && AudioUtils.calcZeroCrossingRate(buffer) >= FRICATIVE_ZERO_CROSSING_RATE;
+    }
+
+    @Override
+    public void reset() {
+
+    }
+}
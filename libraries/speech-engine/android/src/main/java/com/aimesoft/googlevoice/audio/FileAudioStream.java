@@ -0,0 +1,176 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a raw 16 bit little endian PCM file, memory mapped, instead of recording. Reads
+ * return -1 at the end of the file.
+ * <p>
+ * When paced, reads are slowed down to the real time of the audio, as if it were recorded
+ * live. When not paced audio is read as fast as it is consumed, so a file is recognized in
+ * a fraction of its duration.
+ */
+public class FileAudioStream implements AudioStream {
+    private static final int BUFFER_MILLIS = 100;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final int sampleRate;
+    private final int channels;
+    private final boolean paced;
+    private final int bytesPerSecond;
+    private ByteBuffer audio;
+    private long startTime;
+    private volatile boolean recording;
+
+    public FileAudioStream(@NonNull File file, int sampleRate, int channels) {
+        this(file, sampleRate, channels, true);
+    }
+
+    public FileAudioStream(@NonNull File file, int sampleRate, int channels, boolean paced) {
+        this(file, 0, file.length(), sampleRate, channels, paced);
+    }
+
+    /**
+     * @param offset start of the audio in the file
+     * @param length length of the audio, at most 2 GB
+     */
+    protected FileAudioStream(@NonNull File file, long offset, long length, int sampleRate, int channels, boolean paced) {
+        this.file = file;
+        this.offset = offset;
+        this.length = Math.min(length, Integer.MAX_VALUE) & ~1;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.paced = paced;
+        this.bytesPerSecond = sampleRate * channels * 2;
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (recording) {
+            return;
+        }
+        audio = map();
+        startTime = System.nanoTime();
+        recording = true;
+    }
+
+    /**
+     * @return a read only, little endian mapping of the whole audio, independent of reads
+     */
+    @NonNull
+    public ByteBuffer map() throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            return input.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public void stop() {
+        recording = false;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offsetInByte, int length) {
+        if (!recording) {
+            return -1;
+        }
+        int byteRead = Math.min(length & ~1, audio.remaining());
+        if (byteRead == 0) {
+            return -1;
+        }
+        audio.get(buffer, offsetInByte, byteRead);
+        pace();
+        return byteRead;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, int length) {
+        buffer.clear();
+        if (!recording) {
+            buffer.flip();
+            return -1;
+        }
+        int byteRead = Math.min(Math.min(length, buffer.capacity()) & ~1, audio.remaining());
+        if (byteRead == 0) {
+            buffer.flip();
+            return -1;
+        }
+        int limit = audio.limit();
+        audio.limit(audio.position() + byteRead);
+        buffer.put(audio);
+        audio.limit(limit);
+        buffer.flip();
+        pace();
+        return byteRead;
+    }
+
+    /**
+     * Sleeps until the audio read so far would have been recorded.
+     */
+    private void pace() {
+        if (!paced) {
+            return;
+        }
+        long due = startTime + audio.position() * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int channels() {
+        return channels;
+    }
+
+    @Override
+    public int desireBufferSize() {
+        // unpaced reads are not limited by recording, larger chunks mean fewer requests
+        return paced ? bytesPerSecond * BUFFER_MILLIS / 1000 : bytesPerSecond;
+    }
+
+    @Override
+    public boolean stopped() {
+        return !recording;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return paced;
+    }
+
+    @Override
+    public long lastReadTimeNanos() {
+        return -1;
+    }
+
+    /**
+     * @return duration of the audio in milliseconds
+     */
+    public long durationMillis() {
+        return length * 1000 / bytesPerSecond;
+    }
+}
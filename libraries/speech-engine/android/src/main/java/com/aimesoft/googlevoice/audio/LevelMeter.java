@@ -0,0 +1,156 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures true RMS and peak level of 16 bit PCM over fixed windows of samples. Audio can be
+ * added in chunks of any size; a window may span several chunks. Nothing is allocated after
+ * construction.
+ */
+public class LevelMeter {
+    private final int windowSamples;
+    private long sumOfSquares;
+    private int peak;
+    private int count;
+    private float rms;
+    private float peakLevel;
+
+    /**
+     * @param windowSamples number of samples (of all channels) per measurement
+     */
+    public LevelMeter(int windowSamples) {
+        this.windowSamples = Math.max(1, windowSamples);
+    }
+
+    public static LevelMeter forDuration(int sampleRate, int channels, int millis) {
+        return new LevelMeter((int) ((long) sampleRate * channels * millis / 1000));
+    }
+
+    /**
+     * Adds samples to the current window.
+     *
+     * @return true when at least one window was completed and the levels were updated
+     */
+    public boolean process(@NonNull short[] samples, int offset, int length) {
+        boolean updated = false;
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, windowSamples - count);
+            long sum = 0;
+            int max = 0;
+            int min = 0;
+            int i = offset;
+            for (int last = offset + n - 3; i < last; i += 4) {
+                int s0 = samples[i];
+                int s1 = samples[i + 1];
+                int s2 = samples[i + 2];
+                int s3 = samples[i + 3];
+                sum += (long) s0 * s0 + (long) s1 * s1 + (long) s2 * s2 + (long) s3 * s3;
+                max = Math.max(max, Math.max(Math.max(s0, s1), Math.max(s2, s3)));
+                min = Math.min(min, Math.min(Math.min(s0, s1), Math.min(s2, s3)));
+            }
+            for (; i < offset + n; i++) {
+                int s = samples[i];
+                sum += s * s;
+                max = Math.max(max, s);
+                min = Math.min(min, s);
+            }
+            offset += n;
+            updated |= accumulate(sum, Math.max(max, -min), n);
+        }
+        return updated;
+    }
+
+    /**
+     * Adds the remaining bytes of a buffer to the current window, without changing its
+     * position. Samples are decoded little endian whatever the buffer's byte order.
+     *
+     * @return true when at least one window was completed and the levels were updated
+     */
+    public boolean process(@NonNull ByteBuffer buffer) {
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        boolean updated = false;
+        int position = buffer.position();
+        int end = position + (buffer.remaining() & ~1);
+        while (position < end) {
+            int n = Math.min((end - position) / 2, windowSamples - count);
+            int stop = position + n * 2;
+            long sum = 0;
+            int max = 0;
+            int min = 0;
+            if (swap) {
+                for (int i = position; i < stop; i += 2) {
+                    int s = Short.reverseBytes(buffer.getShort(i));
+                    sum += s * s;
+                    max = Math.max(max, s);
+                    min = Math.min(min, s);
+                }
+            } else {
+                for (int i = position; i < stop; i += 2) {
+                    int s = buffer.getShort(i);
+                    sum += s * s;
+                    max = Math.max(max, s);
+                    min = Math.min(min, s);
+                }
+            }
+            position = stop;
+            updated |= accumulate(sum, Math.max(max, -min), n);
+        }
+        return updated;
+    }
+
+    private boolean accumulate(long sum, int max, int samples) {
+        sumOfSquares += sum;
+        peak = Math.max(peak, max);
+        count += samples;
+        if (count < windowSamples) {
+            return false;
+        }
+        rms = (float) Math.sqrt((double) sumOfSquares / count);
+        peakLevel = peak;
+        sumOfSquares = 0;
+        peak = 0;
+        count = 0;
+        return true;
+    }
+
+    /**
+     * @return RMS amplitude of the last completed window, 0 to 32768
+     */
+    public float rms() {
+        return rms;
+    }
+
+    /**
+     * @return largest absolute sample of the last completed window, 0 to 32768
+     */
+    public float peak() {
+        return peakLevel;
+    }
+
+    public float rmsDbfs() {
+        return AudioUtils.toDbfs(rms);
+    }
+
+    public float peakDbfs() {
+        return AudioUtils.toDbfs(peakLevel);
+    }
+
+    public int windowSamples() {
+        return windowSamples;
+    }
+
+    /**
+     * Drops the partial window and the last levels.
+     */
+    public void reset() {
+        sumOfSquares = 0;
+        peak = 0;
+        count = 0;
+        rms = 0f;
+        peakLevel = 0f;
+    }
+}
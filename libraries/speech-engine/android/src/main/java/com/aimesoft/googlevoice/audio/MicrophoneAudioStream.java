@@ -3,17 +3,55 @@ package com.aimesoft.googlevoice.audio;
 import android.content.Context;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
 
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the microphone with {@link AudioRecord}.
+ * <p>
+ * From Android 6 reads do not block: a read returns what the recorder has within a short
+ * wait, so the reading thread notices a stop quickly. From Android 7 every read is stamped
+ * with the capture time of its last frame from {@link AudioRecord#getTimestamp}, and the frame
+ * positions of the timestamps tell when the recorder overran and dropped audio.
+ */
 public class MicrophoneAudioStream implements AudioStream {
+    /**
+     * Longest a non-blocking read waits for the requested audio before returning what it has.
+     */
+    private static final long MAX_READ_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MIN_READ_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
     private final Context context;
     private final int sampleRate;
     private final int channels;
     private final int desireBufferSize;
+    private final int bytesPerFrame;
+    private final long bufferFrames;
 
     private final AudioRecord recorder;
+    private final AudioTimestamp timestamp;
     private volatile boolean recording;
 
+    // written by the reading thread only
+    private long framesRead;
+    /**
+     * Frames captured but not returned by a read that had nothing more to return, when no
+     * audio was lost: what is still on its way from the microphone.
+     */
+    private long pendingFrames = -1;
+    private volatile long lostFrames;
+    private volatile int overrunCount;
+    private volatile long lastReadTimeNanos = -1;
+
     public static AudioStream create(Context context, int recognitionSampleRate, int recognitionAudioChannels) {
         return new MicrophoneAudioStream(context, recognitionSampleRate, recognitionAudioChannels);
     }
@@ -27,6 +65,9 @@ public class MicrophoneAudioStream implements AudioStream {
         int recordingBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelsConfig, AudioFormat.ENCODING_PCM_16BIT);
         recorder = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelsConfig, AudioFormat.ENCODING_PCM_16BIT, recordingBufferSize);
         desireBufferSize = recordingBufferSize;
+        bytesPerFrame = channels * 2;
+        bufferFrames = Math.max(1, recordingBufferSize / bytesPerFrame);
+        timestamp = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? new AudioTimestamp() : null;
     }
 
     @Override
@@ -52,6 +93,92 @@ public class MicrophoneAudioStream implements AudioStream {
         return recorder.read(buffer, offsetInByte, length);
     }
 
+    /**
+     * Reads into the direct buffer without an intermediate array. Without blocking reads this
+     * returns after at most {@link #MAX_READ_WAIT_NANOS} with what was recorded, which may be
+     * less than {@code length} or nothing.
+     */
+    @Override
+    public int read(ByteBuffer buffer, int length) {
+        buffer.clear();
+        int size = Math.min(length, buffer.capacity());
+        int byteRead;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            byteRead = readNonBlocking(buffer, size);
+        } else {
+            byteRead = recorder.read(buffer, size);
+            if (byteRead > 0) {
+                onRead(byteRead, false);
+            }
+        }
+        buffer.position(0);
+        buffer.limit(Math.max(0, byteRead));
+        return byteRead;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.M)
+    private int readNonBlocking(ByteBuffer buffer, int size) {
+        long deadline = System.nanoTime() + MAX_READ_WAIT_NANOS;
+        int total = 0;
+        while (true) {
+            // AudioRecord writes at the start of the buffer whatever its position, so read into
+            // a slice that starts after the audio read so far
+            ByteBuffer target = ((ByteBuffer) buffer.duplicate().position(total)).slice();
+            int byteRead = recorder.read(target, size - total, AudioRecord.READ_NON_BLOCKING);
+            if (byteRead < 0) {
+                if (total == 0) {
+                    return byteRead;
+                }
+                break;
+            }
+            total += byteRead;
+            if (total >= size) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                break;
+            }
+            long missing = (long) (size - total) * NANOS_PER_SECOND / ((long) sampleRate * bytesPerFrame);
+            LockSupport.parkNanos(Math.max(MIN_READ_WAIT_NANOS, Math.min(missing, deadline - now)));
+        }
+        if (total > 0) {
+            onRead(total, total < size);
+        }
+        return total;
+    }
+
+    /**
+     * @param drained whether the recorder had nothing more to return, so that the frames it
+     *                captured but did not return are only those on their way
+     */
+    private void onRead(int bytes, boolean drained) {
+        framesRead += bytes / bytesPerFrame;
+        long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || timestamp == null
+                || recorder.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            // the last frame was captured a little earlier, by the recorder's latency
+            lastReadTimeNanos = now;
+            return;
+        }
+        // frame positions count from the start of the recording, dropped frames included
+        long capturedFrames = timestamp.framePosition + (now - timestamp.nanoTime) * sampleRate / NANOS_PER_SECOND;
+        long unaccounted = capturedFrames - framesRead - lostFrames;
+        if (drained) {
+            if (pendingFrames < 0 || unaccounted < pendingFrames) {
+                pendingFrames = Math.max(0, unaccounted);
+            } else if (unaccounted - pendingFrames > bufferFrames) {
+                // more missing than the recorder buffer holds, the excess was dropped
+                long lost = unaccounted - pendingFrames;
+                lostFrames += lost;
+                overrunCount++;
+                Log.w("ASR", "recorder overrun, lost " + lost * 1000 / sampleRate + " ms of audio");
+            }
+        }
+        lastReadTimeNanos = timestamp.nanoTime
+                + (framesRead + lostFrames - timestamp.framePosition) * NANOS_PER_SECOND / sampleRate;
+    }
+
     @Override
     public int sampleRate() {
         return sampleRate;
@@ -71,4 +198,43 @@ public class MicrophoneAudioStream implements AudioStream {
     public boolean stopped() {
         return recorder.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED;
     }
+
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    @Override
+    public long lastReadTimeNanos() {
+        return lastReadTimeNanos;
+    }
+
+    /**
+     * @return times the recorder was found to have dropped audio because it was not read in
+     * time. Only detected from Android 7, and only losses longer than the recorder buffer.
+     */
+    public int overrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return frames dropped by the recorder in its {@link #overrunCount() overruns}
+     */
+    public long lostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * @return false when the recorder could not be created, e.g. without the record permission
+     */
+    public boolean isInitialized() {
+        return recorder.getState() == AudioRecord.STATE_INITIALIZED;
+    }
+
+    /**
+     * Frees the recorder. The stream cannot be used afterwards.
+     */
+    public void release() {
+        recorder.release();
+    }
 }
@@ -0,0 +1,85 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts long 16 bit PCM audio into segments no longer than a maximum duration. Each cut is
+ * placed in the quietest frame of the last part of the segment, so words are rarely split.
+ */
+public class SilenceSplitter {
+    private static final int FRAME_MILLIS = 20;
+
+    private final int blockAlign;
+    private final int frameBytes;
+    private final int maxSegmentBytes;
+    private final int searchBytes;
+
+    /**
+     * @param maxSegmentMillis longest segment
+     * @param searchMillis     how far back from the longest segment to look for silence
+     */
+    public SilenceSplitter(int sampleRate, int channels, int maxSegmentMillis, int searchMillis) {
+        this.blockAlign = Math.max(1, channels) * 2;
+        int bytesPerSecond = sampleRate * blockAlign;
+        this.frameBytes = (int) Math.max(blockAlign, align(bytesPerSecond * FRAME_MILLIS / 1000));
+        this.maxSegmentBytes = (int) Math.max(frameBytes, align((long) bytesPerSecond * maxSegmentMillis / 1000));
+        this.searchBytes = (int) Math.min(align(maxSegmentBytes / 2), align((long) bytesPerSecond * searchMillis / 1000));
+    }
+
+    /**
+     * @return slices of {@code audio} from its position to its limit, in order, sharing its content
+     */
+    @NonNull
+    public List<ByteBuffer> split(@NonNull ByteBuffer audio) {
+        List<ByteBuffer> segments = new ArrayList<>();
+        int start = audio.position();
+        int end = audio.limit();
+        while (end - start > maxSegmentBytes) {
+            int cut = quietestFrameEnd(audio, start + maxSegmentBytes - searchBytes, start + maxSegmentBytes);
+            segments.add(slice(audio, start, cut));
+            start = cut;
+        }
+        if (end > start) {
+            segments.add(slice(audio, start, end));
+        }
+        return segments;
+    }
+
+    /**
+     * @return end of the frame with the lowest level between {@code from} and {@code to}
+     */
+    private int quietestFrameEnd(@NonNull ByteBuffer audio, int from, int to) {
+        ByteBuffer frame = audio.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int best = to;
+        float bestLevel = Float.MAX_VALUE;
+        for (int position = to - frameBytes; position >= from; position -= frameBytes) {
+            frame.limit(position + frameBytes).position(position);
+            float level = AudioUtils.calcRmsLevel(frame);
+            if (level < bestLevel) {
+                bestLevel = level;
+                // cut in the middle of the frame
+                best = position + (int) align(frameBytes / 2);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Rounds down to whole sample frames, so that no cut falls between the channels of a sample.
+     */
+    private long align(long bytes) {
+        return bytes - bytes % blockAlign;
+    }
+
+    @NonNull
+    private static ByteBuffer slice(@NonNull ByteBuffer audio, int start, int end) {
+        ByteBuffer segment = audio.duplicate();
+        segment.limit(end).position(start);
+        return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
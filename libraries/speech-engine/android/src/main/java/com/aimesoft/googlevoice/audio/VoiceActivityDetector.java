@@ -0,0 +1,20 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a chunk of 16 bit little endian PCM contains speech.
+ */
+public interface VoiceActivityDetector {
+    /**
+     * Classifies the remaining bytes of the buffer without changing its position.
+     */
+    boolean isSpeech(@NonNull ByteBuffer buffer);
+
+    /**
+     * Forgets any state from a previous session.
+     */
+    void reset();
+}
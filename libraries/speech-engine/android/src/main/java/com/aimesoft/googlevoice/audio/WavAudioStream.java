@@ -0,0 +1,82 @@
+package com.aimesoft.googlevoice.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link FileAudioStream} for the data chunk of a 16 bit PCM WAV file.
+ */
+public class WavAudioStream extends FileAudioStream {
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private WavAudioStream(@NonNull File file, long offset, long length, int sampleRate, int channels, boolean paced) {
+        super(file, offset, length, sampleRate, channels, paced);
+    }
+
+    /**
+     * Reads the WAV header of the file.
+     *
+     * @throws IOException if the file is not a 16 bit PCM WAV file
+     */
+    @NonNull
+    public static WavAudioStream open(@NonNull File file, boolean paced) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (readTag(input) != tag("RIFF")) {
+                throw new IOException("not a RIFF file: " + file);
+            }
+            readInt(input);
+            if (readTag(input) != tag("WAVE")) {
+                throw new IOException("not a WAVE file: " + file);
+            }
+            int sampleRate = 0;
+            int channels = 0;
+            while (input.getFilePointer() + 8 <= input.length()) {
+                int id = readTag(input);
+                long size = readInt(input) & 0xFFFFFFFFL;
+                long start = input.getFilePointer();
+                if (id == tag("fmt ")) {
+                    int format = readShort(input);
+                    channels = readShort(input);
+                    sampleRate = readInt(input);
+                    input.skipBytes(6); // byte rate, block align
+                    int bitsPerSample = readShort(input);
+                    if ((format != WAVE_FORMAT_PCM && format != WAVE_FORMAT_EXTENSIBLE) || bitsPerSample != 16) {
+                        throw new IOException("not 16 bit PCM: format " + format + ", " + bitsPerSample + " bits");
+                    }
+                } else if (id == tag("data")) {
+                    if (sampleRate <= 0 || channels <= 0) {
+                        throw new IOException("data before fmt chunk: " + file);
+                    }
+                    // streamed files may leave the size at 0 or 0xFFFFFFFF
+                    long length = size == 0 ? input.length() - start : Math.min(size, input.length() - start);
+                    return new WavAudioStream(file, start, length, sampleRate, channels, paced);
+                }
+                input.seek(start + size + (size & 1));
+            }
+            throw new IOException("no data chunk: " + file);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int tag(@NonNull String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+
+    private static int readTag(@NonNull RandomAccessFile input) throws IOException {
+        return readInt(input);
+    }
+
+    private static int readInt(@NonNull RandomAccessFile input) throws IOException {
+        return Integer.reverseBytes(input.readInt());
+    }
+
+    private static int readShort(@NonNull RandomAccessFile input) throws IOException {
+        return Short.reverseBytes(input.readShort()) & 0xFFFF;
+    }
+}
@@ -0,0 +1,35 @@
+package com.aimesoft.googlevoice.codec;
+
+import androidx.annotation.NonNull;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental encoder for recognition audio. Every call to {@code encode} writes the output
+ * that is ready before returning, so latency stays within one chunk.
+ */
+public interface AudioEncoder {
+    interface Output {
+        void write(byte[] data, int offset, int length);
+    }
+
+    @NonNull
+    RecognitionConfig.AudioEncoding encoding();
+
+    /**
+     * Encodes the remaining bytes of 16 bit little endian PCM without changing the buffer
+     * position.
+     */
+    void encode(@NonNull ByteBuffer pcm, @NonNull Output output);
+
+    void encode(byte[] pcm, int offset, int length, @NonNull Output output);
+
+    /**
+     * Flushes the remaining audio and ends the encoded stream.
+     */
+    void finish(@NonNull Output output);
+
+    void release();
+}
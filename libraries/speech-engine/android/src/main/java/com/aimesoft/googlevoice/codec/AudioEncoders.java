@@ -0,0 +1,29 @@
+package com.aimesoft.googlevoice.codec;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+public class AudioEncoders {
+
+    /**
+     * Creates an encoder for the requested encoding.
+     *
+     * @return the encoder, or null when audio should be sent as raw LINEAR16, either because
+     * that was requested or because the encoder is not available on this device
+     */
+    @Nullable
+    public static AudioEncoder create(@NonNull RecognitionConfig.AudioEncoding encoding, int sampleRate, int channels) {
+        if (encoding == RecognitionConfig.AudioEncoding.OGG_OPUS && OggOpusEncoder.isSupported()) {
+            try {
+                return new OggOpusEncoder(sampleRate, channels, OggOpusEncoder.DEFAULT_BIT_RATE);
+            } catch (Exception e) {
+                Log.w("ASR", "Opus encoder unavailable, falling back to LINEAR16", e);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,197 @@
+package com.aimesoft.googlevoice.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.SpeechMetrics;
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Encodes PCM to Opus with the platform {@link MediaCodec} encoder (Android 10+) and wraps the
+ * packets in an Ogg stream, as expected by {@code AudioEncoding.OGG_OPUS}. Packets produced
+ * by one {@code encode} call are written as one Ogg page.
+ */
+public class OggOpusEncoder implements AudioEncoder {
+    public static final int DEFAULT_BIT_RATE = 24000;
+    private static final int OPUS_GRANULE_RATE = 48000;
+    private static final int PRE_SKIP = 312;
+    private static final long INPUT_TIMEOUT_US = 10000;
+    private static final long END_OF_STREAM_TIMEOUT_US = 10000;
+    private static final int MAX_END_OF_STREAM_POLLS = 50;
+    private static final int MAX_INPUT_POLLS = 50;
+    private static final String VENDOR = "speech-engine";
+
+    private final int sampleRate;
+    private final int channels;
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final OggPageWriter writer = new OggPageWriter(new Random().nextInt());
+    private long queuedSamples;
+    private boolean headersWritten;
+    private boolean finished;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    public OggOpusEncoder(int sampleRate, int channels, int bitRate) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_OPUS, sampleRate, channels);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_OPUS);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+        } catch (RuntimeException e) {
+            codec.release();
+            throw e;
+        }
+    }
+
+    @NonNull
+    @Override
+    public RecognitionConfig.AudioEncoding encoding() {
+        return RecognitionConfig.AudioEncoding.OGG_OPUS;
+    }
+
+    @Override
+    public void encode(@NonNull ByteBuffer pcm, @NonNull Output output) {
+        if (finished) {
+            return;
+        }
+        writeHeaders(output);
+        int position = pcm.position();
+        int limit = pcm.limit();
+        int frameBytes = 2 * channels;
+        int polls = 0;
+        while (pcm.remaining() >= frameBytes) {
+            int index = codec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+            if (index < 0) {
+                drain(output, false);
+                if (++polls > MAX_INPUT_POLLS) {
+                    break;
+                }
+                continue;
+            }
+            ByteBuffer input = codec.getInputBuffer(index);
+            input.clear();
+            int length = Math.min(input.remaining(), pcm.remaining());
+            length -= length % frameBytes;
+            pcm.limit(pcm.position() + length);
+            input.put(pcm);
+            pcm.limit(limit);
+            codec.queueInputBuffer(index, 0, length, presentationTimeUs(), 0);
+            queuedSamples += length / frameBytes;
+        }
+        if (pcm.remaining() >= frameBytes) {
+            // the encoder stalled, the granule positions now run behind the audio
+            Log.w("ASR", "opus encoder stalled, dropped " + pcm.remaining() / frameBytes * 1000 / sampleRate + " ms of audio");
+            SpeechMetrics.getInstance().addDroppedSamples(pcm.remaining() / 2);
+        }
+        pcm.position(position);
+        drain(output, false);
+        writer.flush(false, output);
+    }
+
+    @Override
+    public void encode(byte[] pcm, int offset, int length, @NonNull Output output) {
+        encode(ByteBuffer.wrap(pcm, offset, length), output);
+    }
+
+    @Override
+    public void finish(@NonNull Output output) {
+        if (finished) {
+            return;
+        }
+        writeHeaders(output);
+        int index = codec.dequeueInputBuffer(END_OF_STREAM_TIMEOUT_US);
+        if (index >= 0) {
+            codec.queueInputBuffer(index, 0, 0, presentationTimeUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(output, true);
+        }
+        finished = true;
+        writer.flush(true, output);
+    }
+
+    @Override
+    public void release() {
+        try {
+            codec.stop();
+        } catch (IllegalStateException ignored) {
+        }
+        codec.release();
+    }
+
+    private void drain(@NonNull Output output, boolean endOfStream) {
+        int polls = 0;
+        while (true) {
+            int index = codec.dequeueOutputBuffer(info, endOfStream ? END_OF_STREAM_TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream || ++polls > MAX_END_OF_STREAM_POLLS) {
+                    return;
+                }
+                continue;
+            }
+            if (index < 0) {
+                continue; // format or buffers changed
+            }
+            boolean last = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                ByteBuffer packet = codec.getOutputBuffer(index);
+                packet.position(info.offset);
+                packet.limit(info.offset + info.size);
+                writer.addPacket(packet, granulePosition(info.presentationTimeUs), output);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private void writeHeaders(@NonNull Output output) {
+        if (headersWritten) {
+            return;
+        }
+        headersWritten = true;
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put("OpusHead".getBytes(Charset.forName("US-ASCII")));
+        head.put((byte) 1);
+        head.put((byte) channels);
+        head.putShort((short) PRE_SKIP);
+        head.putInt(sampleRate);
+        head.putShort((short) 0);
+        head.put((byte) 0);
+        writer.addPacket(head.array(), 0, output);
+        writer.flush(false, output);
+
+        byte[] vendor = VENDOR.getBytes(Charset.forName("UTF-8"));
+        ByteBuffer tags = ByteBuffer.allocate(8 + 4 + vendor.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tags.put("OpusTags".getBytes(Charset.forName("US-ASCII")));
+        tags.putInt(vendor.length);
+        tags.put(vendor);
+        tags.putInt(0);
+        writer.addPacket(tags.array(), 0, output);
+        writer.flush(false, output);
+    }
+
+    private long presentationTimeUs() {
+        return queuedSamples * 1000000L / sampleRate;
+    }
+
+    private long granulePosition(long presentationTimeUs) {
+        // end of a 20 ms packet, in 48 kHz samples including the pre-skip
+        return PRE_SKIP + (presentationTimeUs + 20000) * OPUS_GRANULE_RATE / 1000000L;
+    }
+}
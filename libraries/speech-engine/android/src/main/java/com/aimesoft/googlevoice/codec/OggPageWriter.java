@@ -0,0 +1,129 @@
+package com.aimesoft.googlevoice.codec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs packets into Ogg pages (RFC 3533). Packets added between two flushes share a page.
+ */
+class OggPageWriter {
+    private static final int HEADER_SIZE = 27;
+    private static final int MAX_SEGMENTS = 255;
+    private static final int MAX_BODY = MAX_SEGMENTS * 255;
+    private static final int FLAG_BEGIN_OF_STREAM = 0x02;
+    private static final int FLAG_END_OF_STREAM = 0x04;
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r = i << 24;
+            for (int j = 0; j < 8; j++) {
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04c11db7 : r << 1;
+            }
+            CRC_TABLE[i] = r;
+        }
+    }
+
+    private final int serial;
+    private final byte[] page = new byte[HEADER_SIZE + MAX_SEGMENTS + MAX_BODY];
+    private final byte[] lacing = new byte[MAX_SEGMENTS];
+    private final byte[] body = new byte[MAX_BODY];
+    private int segments;
+    private int bodySize;
+    private int sequence;
+    private long granule;
+    private boolean started;
+
+    OggPageWriter(int serial) {
+        this.serial = serial;
+    }
+
+    /**
+     * Adds a packet whose last sample has the given granule position, flushing first if the
+     * packet does not fit in the current page.
+     */
+    void addPacket(@NonNull ByteBuffer packet, long granule, @NonNull AudioEncoder.Output output) {
+        int length = packet.remaining();
+        int needed = length / 255 + 1;
+        if (segments + needed > MAX_SEGMENTS || bodySize + length > MAX_BODY) {
+            flush(false, output);
+        }
+        packet.get(body, bodySize, length);
+        bodySize += length;
+        addLacing(length);
+        this.granule = granule;
+    }
+
+    void addPacket(byte[] packet, long granule, @NonNull AudioEncoder.Output output) {
+        addPacket(ByteBuffer.wrap(packet), granule, output);
+    }
+
+    boolean hasPending() {
+        return segments > 0;
+    }
+
+    /**
+     * Writes the pending packets as one page. With {@code endOfStream} a page is written
+     * even when nothing is pending.
+     */
+    void flush(boolean endOfStream, @NonNull AudioEncoder.Output output) {
+        if (segments == 0 && !endOfStream) {
+            return;
+        }
+        int flags = 0;
+        if (!started) {
+            flags |= FLAG_BEGIN_OF_STREAM;
+            started = true;
+        }
+        if (endOfStream) {
+            flags |= FLAG_END_OF_STREAM;
+        }
+        page[0] = 'O';
+        page[1] = 'g';
+        page[2] = 'g';
+        page[3] = 'S';
+        page[4] = 0;
+        page[5] = (byte) flags;
+        putLong(page, 6, granule);
+        putInt(page, 14, serial);
+        putInt(page, 18, sequence++);
+        putInt(page, 22, 0);
+        page[26] = (byte) segments;
+        System.arraycopy(lacing, 0, page, HEADER_SIZE, segments);
+        System.arraycopy(body, 0, page, HEADER_SIZE + segments, bodySize);
+        int size = HEADER_SIZE + segments + bodySize;
+        putInt(page, 22, crc(page, size));
+        output.write(page, 0, size);
+        segments = 0;
+        bodySize = 0;
+    }
+
+    private void addLacing(int length) {
+        while (length >= 255) {
+            lacing[segments++] = (byte) 255;
+            length -= 255;
+        }
+        lacing[segments++] = (byte) length;
+    }
+
+    private static int crc(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putLong(byte[] data, int offset, long value) {
+        putInt(data, offset, (int) value);
+        putInt(data, offset + 4, (int) (value >>> 32));
+    }
+}
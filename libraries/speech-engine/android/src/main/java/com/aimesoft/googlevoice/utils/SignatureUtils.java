@@ -7,6 +7,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.Signature;
 import android.content.pm.SigningInfo;
 import android.os.Build;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -15,10 +16,91 @@ import com.google.common.io.BaseEncoding;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SignatureUtils {
+    private static final int MAX_CACHED_KEYS = 8;
+    private static final Object PACKAGE_LOCK = new Object();
+    private static final AtomicBoolean PRELOAD_STARTED = new AtomicBoolean();
+    private static final Map<String, Map<String, String>> KEY_HEADERS =
+            new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                    return size() > MAX_CACHED_KEYS;
+                }
+            };
+    private static volatile Map<String, String> packageHeaders;
+
+    /**
+     * Same as {@link #calculateSignatureHeaders(Context, String)}, but the package name and
+     * certificate digest are computed once per process and the headers of the last few api
+     * keys are kept, so repeated calls do no {@code PackageManager} or digest work. The
+     * returned map is immutable.
+     */
+    @NonNull
+    public static Map<String, String> signatureHeaders(@NonNull Context context, @NonNull String apiKey) {
+        synchronized (KEY_HEADERS) {
+            Map<String, String> cached = KEY_HEADERS.get(apiKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Map<String, String> headers = new HashMap<>(packageHeaders(context));
+        headers.put("X-Goog-Api-Key", apiKey);
+        headers = Collections.unmodifiableMap(headers);
+        synchronized (KEY_HEADERS) {
+            KEY_HEADERS.put(apiKey, headers);
+        }
+        return headers;
+    }
+
+    /**
+     * Computes the package headers on a background thread, once per process, so that the
+     * first {@link #signatureHeaders(Context, String)} does not wait for the package manager.
+     */
+    public static void preload(@NonNull Context context) {
+        if (packageHeaders != null || !PRELOAD_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        // not on SpeechScheduler: the package manager call may block its timers
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                packageHeaders(appContext);
+            }
+        }, "speech-signature-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @NonNull
+    private static Map<String, String> packageHeaders(@NonNull Context context) {
+        Map<String, String> headers = packageHeaders;
+        if (headers != null) {
+            return headers;
+        }
+        synchronized (PACKAGE_LOCK) {
+            if (packageHeaders == null) {
+                headers = new HashMap<>(2);
+                headers.put("X-Android-Package", apkPackageName(context));
+                try {
+                    String signature = apkSignatureString(context);
+                    if (signature != null) {
+                        headers.put("X-Android-Cert", signature);
+                    }
+                } catch (PackageManager.NameNotFoundException | NoSuchAlgorithmException e) {
+                    Log.w("ASR", "cannot compute the certificate header", e);
+                }
+                packageHeaders = Collections.unmodifiableMap(headers);
+            }
+            return packageHeaders;
+        }
+    }
 
     @NonNull
     public static Map<String, String> calculateSignatureHeaders(@NonNull Context context, @NonNull String apiKey) {
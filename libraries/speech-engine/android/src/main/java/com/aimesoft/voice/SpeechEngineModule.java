@@ -4,21 +4,29 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.Handler;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.aimesoft.googlevoice.BatchTranscriber;
 import com.aimesoft.googlevoice.GoogleCloudVoice;
+import com.aimesoft.googlevoice.RecognitionResult;
+import com.aimesoft.googlevoice.RecognitionResultListener;
+import com.aimesoft.googlevoice.SpeechMetrics;
 import com.aimesoft.googlevoice.SpeechRecognizer;
+import com.aimesoft.googlevoice.TranscriptDelta;
+import com.aimesoft.googlevoice.TranscriptListener;
+import com.aimesoft.googlevoice.audio.AudioSpool;
+import com.aimesoft.googlevoice.utils.LatencyHistogram;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
@@ -27,21 +35,48 @@ import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.facebook.react.modules.core.PermissionAwareActivity;
 import com.facebook.react.modules.core.PermissionListener;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nullable;
 
-public class SpeechEngineModule extends ReactContextBaseJavaModule implements RecognitionListener {
+public class SpeechEngineModule extends ReactContextBaseJavaModule implements RecognitionListener, RecognitionResultListener, TranscriptListener {
 
     final ReactApplicationContext reactContext;
+    private final SpeechEventDispatcher eventDispatcher;
+    /**
+     * Runs every speech control command in call order and owns the recognizer, so the main
+     * thread never creates a recorder or waits for one to stop.
+     */
+    private final ExecutorService engine = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "speech-engine");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private SpeechRecognizer speech = null;
-    private boolean isRecognizing = false;
+    private volatile boolean isRecognizing = false;
+    private volatile boolean transcriptDeltas = false;
     private String locale = null;
+    private BatchTranscriber transcriber;
 
     public SpeechEngineModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        this.eventDispatcher = new SpeechEventDispatcher(new SpeechEventDispatcher.Emitter() {
+            @Override
+            public void emit(@NonNull String eventName, @Nullable WritableMap params) {
+                sendEvent(eventName, params);
+            }
+        });
     }
 
     private String getLocale(String locale) {
@@ -52,14 +87,26 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
         return Locale.getDefault().toString();
     }
 
-    private void startListening(ReadableMap opts) {
-        if (speech != null) {
-            speech.destroy();
-            speech = null;
+    /**
+     * The recognizer is kept between sessions so that what {@link #prepareSpeech} set up is
+     * still there when speech starts.
+     */
+    @NonNull
+    private SpeechRecognizer recognizer() {
+        if (speech == null) {
+            speech = GoogleCloudVoice.create(this.reactContext);
+            speech.setRecognitionListener(this);
         }
-        speech = GoogleCloudVoice.create(this.reactContext);
-        speech.setRecognitionListener(this);
+        return speech;
+    }
+
+    private void startListening(ReadableMap opts) {
+        transcriptDeltas = opts.hasKey("TRANSCRIPT_DELTAS") && opts.getBoolean("TRANSCRIPT_DELTAS");
+        recognizer().startListening(createIntent(opts));
+    }
 
+    @NonNull
+    private Intent createIntent(ReadableMap opts) {
         final Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
 
         // Load the intent with options from JS
@@ -89,6 +136,12 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
                     intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, opts.getBoolean(key));
                     break;
                 }
+                case "WORD_TIME_OFFSETS":
+                case "TRANSCRIPT_DELTAS":
+                case "SINGLE_UTTERANCE": {
+                    intent.putExtra(key, opts.getBoolean(key));
+                    break;
+                }
                 case "EXTRA_SPEECH_INPUT_MINIMUM_LENGTH_MILLIS": {
                     Double extras = opts.getDouble(key);
                     intent.putExtra(RecognizerIntent.EXTRA_SPEECH_INPUT_MINIMUM_LENGTH_MILLIS, extras.intValue());
@@ -108,21 +161,79 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
                     intent.putExtra("apikey", opts.getString(key));
                     break;
                 }
+                case "GAPLESS_ROLLOVER": {
+                    intent.putExtra("GAPLESS_ROLLOVER", opts.getBoolean(key));
+                    break;
+                }
+                case "ROLLOVER_CARRY_OVER_MILLIS": {
+                    Double extras = opts.getDouble(key);
+                    intent.putExtra("ROLLOVER_CARRY_OVER_MILLIS", extras.intValue());
+                    break;
+                }
+                case "MIN_CHUNK_MILLIS":
+                case "MAX_CHUNK_MILLIS":
+                case "RECONNECT_ATTEMPTS":
+                case "END_SILENCE_MILLIS":
+                case "FINALIZE_TIMEOUT_MILLIS": {
+                    Double extras = opts.getDouble(key);
+                    intent.putExtra(key, extras.intValue());
+                    break;
+                }
+                case "AUDIO_ENCODING": {
+                    intent.putExtra("AUDIO_ENCODING", opts.getString(key));
+                    break;
+                }
+                case "SPEECH_ENDPOINT":
+                case "AUDIO_FILE": {
+                    intent.putExtra(key, opts.getString(key));
+                    break;
+                }
+                case "AUDIO_FILE_PACED": {
+                    intent.putExtra("AUDIO_FILE_PACED", opts.getBoolean(key));
+                    break;
+                }
+                case "VAD_ENABLED": {
+                    intent.putExtra("VAD_ENABLED", opts.getBoolean(key));
+                    break;
+                }
+                case "VAD_THRESHOLD_DB": {
+                    Double extras = opts.getDouble(key);
+                    intent.putExtra("VAD_THRESHOLD_DB", extras.floatValue());
+                    break;
+                }
+                case "SPOOL_ENABLED": {
+                    intent.putExtra("SPOOL_ENABLED", opts.getBoolean(key));
+                    break;
+                }
+                case "SPOOL_MAX_BYTES": {
+                    Double extras = opts.getDouble(key);
+                    intent.putExtra("SPOOL_MAX_BYTES", extras.longValue());
+                    break;
+                }
+                case "VAD_HANGOVER_MILLIS":
+                case "VAD_PRE_ROLL_MILLIS":
+                case "VAD_KEEP_ALIVE_MILLIS": {
+                    Double extras = opts.getDouble(key);
+                    intent.putExtra(key, extras.intValue());
+                    break;
+                }
             }
         }
 
         intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, getLocale(this.locale));
-        speech.startListening(intent);
+        return intent;
     }
 
     private void startSpeechWithPermissions(final String locale, final ReadableMap opts, final Callback callback) {
-        this.locale = locale;
+        if (opts.hasKey("EVENT_RATE_HZ")) {
+            eventDispatcher.setRate((int) opts.getDouble("EVENT_RATE_HZ"));
+        }
 
-        Handler mainHandler = new Handler(this.reactContext.getMainLooper());
-        mainHandler.post(new Runnable() {
+        engine.execute(new Runnable() {
             @Override
             public void run() {
                 try {
+                    SpeechEngineModule.this.locale = locale;
                     startListening(opts);
                     isRecognizing = true;
                     callback.invoke(false);
@@ -162,10 +273,31 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
         startSpeechWithPermissions(locale, opts, callback);
     }
 
+    /**
+     * Loads the api key, connects to the service and creates the recorder ahead of time, so
+     * a following {@link #startSpeech} starts streaming right away. Takes the same options.
+     */
+    @ReactMethod
+    public void prepareSpeech(final String locale, final ReadableMap opts, final Callback callback) {
+        engine.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isRecognizing) {
+                        SpeechEngineModule.this.locale = locale;
+                        recognizer().prepare(createIntent(opts));
+                    }
+                    callback.invoke(false);
+                } catch (Exception e) {
+                    callback.invoke(e.getMessage());
+                }
+            }
+        });
+    }
+
     @ReactMethod
     public void stopSpeech(final Callback callback) {
-        Handler mainHandler = new Handler(this.reactContext.getMainLooper());
-        mainHandler.post(new Runnable() {
+        engine.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -183,8 +315,7 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
 
     @ReactMethod
     public void cancelSpeech(final Callback callback) {
-        Handler mainHandler = new Handler(this.reactContext.getMainLooper());
-        mainHandler.post(new Runnable() {
+        engine.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -202,8 +333,7 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
 
     @ReactMethod
     public void destroySpeech(final Callback callback) {
-        Handler mainHandler = new Handler(this.reactContext.getMainLooper());
-        mainHandler.post(new Runnable() {
+        engine.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -223,8 +353,7 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
     @ReactMethod
     public void isSpeechAvailable(final Callback callback) {
         final SpeechEngineModule self = this;
-        Handler mainHandler = new Handler(this.reactContext.getMainLooper());
-        mainHandler.post(new Runnable() {
+        engine.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -236,6 +365,139 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
         });
     }
 
+    /**
+     * Sets how many batched {@code onSpeechFrame} events are sent per second. 0, the default,
+     * sends every volume, partial result and buffer callback as its own event.
+     */
+    @ReactMethod
+    public void setEventRate(int rateHz) {
+        eventDispatcher.setRate(rateHz);
+    }
+
+    /**
+     * Transcribes stored recordings in the background, see {@link BatchTranscriber}. Progress
+     * and results are sent as {@code onTranscription*} events.
+     */
+    @ReactMethod
+    public void transcribeFiles(final ReadableArray paths, final ReadableMap opts, final Callback callback) {
+        try {
+            String apiKey = opts.hasKey("apikey") ? opts.getString("apikey") : GoogleCloudVoice.defaultApiKey(reactContext);
+            if (apiKey == null) {
+                callback.invoke(getErrorText(SpeechRecognizer.ERROR_CLIENT));
+                return;
+            }
+            BatchTranscriber.Options.Builder options = new BatchTranscriber.Options.Builder(apiKey)
+                    .language(getLocale(opts.hasKey("language") ? opts.getString("language") : null));
+            if (opts.hasKey("MAX_CONCURRENCY")) {
+                options.maxConcurrency((int) opts.getDouble("MAX_CONCURRENCY"));
+            }
+            if (opts.hasKey("MAX_SEGMENT_MILLIS")) {
+                options.maxSegmentMillis((int) opts.getDouble("MAX_SEGMENT_MILLIS"));
+            }
+            if (opts.hasKey("SPEECH_ENDPOINT")) {
+                options.endpoint(opts.getString("SPEECH_ENDPOINT"));
+            }
+            List<String> files = new ArrayList<>(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                files.add(paths.getString(i));
+            }
+            synchronized (this) {
+                if (transcriber != null) {
+                    callback.invoke("Transcription already running");
+                    return;
+                }
+                transcriber = new BatchTranscriber(reactContext, options.build(), new TranscriptionEvents());
+                transcriber.start(files);
+            }
+            callback.invoke(false);
+        } catch (Exception e) {
+            synchronized (this) {
+                transcriber = null;
+            }
+            callback.invoke(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void cancelTranscription(final Callback callback) {
+        BatchTranscriber running;
+        synchronized (this) {
+            running = transcriber;
+        }
+        if (running != null) {
+            running.cancel();
+        }
+        callback.invoke(false);
+    }
+
+    private class TranscriptionEvents implements BatchTranscriber.Listener {
+        @Override
+        public void onProgress(int fileIndex, @NonNull String path, int completedSegments, int totalSegments) {
+            WritableMap event = Arguments.createMap();
+            event.putInt("index", fileIndex);
+            event.putString("path", path);
+            event.putInt("completed", completedSegments);
+            event.putInt("total", totalSegments);
+            eventDispatcher.send("onTranscriptionProgress", event);
+        }
+
+        @Override
+        public void onFileTranscribed(int fileIndex, @NonNull String path, @NonNull String transcript) {
+            WritableMap event = Arguments.createMap();
+            event.putInt("index", fileIndex);
+            event.putString("path", path);
+            event.putString("transcript", transcript);
+            eventDispatcher.send("onTranscriptionResult", event);
+        }
+
+        @Override
+        public void onFileError(int fileIndex, @NonNull String path, @NonNull Throwable error) {
+            WritableMap event = Arguments.createMap();
+            event.putInt("index", fileIndex);
+            event.putString("path", path);
+            event.putString("error", String.valueOf(error.getMessage()));
+            eventDispatcher.send("onTranscriptionError", event);
+        }
+
+        @Override
+        public void onFinished() {
+            synchronized (SpeechEngineModule.this) {
+                transcriber = null;
+            }
+            eventDispatcher.send("onTranscriptionEnd", Arguments.createMap());
+        }
+    }
+
+    /**
+     * Resolves with the sessions that {@code SPOOL_ENABLED} left on disk because their stream
+     * failed or the app died, oldest first. Their segments are raw 16 kHz mono PCM that
+     * {@link #transcribeFiles} accepts.
+     */
+    @ReactMethod
+    public void getSpooledSessions(Promise promise) {
+        WritableArray sessions = Arguments.createArray();
+        AudioSpool spool = GoogleCloudVoice.audioSpool(reactContext, AudioSpool.DEFAULT_MAX_BYTES);
+        for (AudioSpool.SpooledSession session : spool.pendingSessions()) {
+            WritableArray segments = Arguments.createArray();
+            for (File segment : session.getSegments()) {
+                segments.pushString(segment.getAbsolutePath());
+            }
+            WritableMap map = Arguments.createMap();
+            map.putString("id", session.getId());
+            map.putDouble("createdAt", (double) session.getCreatedAt());
+            map.putString("language", session.getLanguage());
+            map.putDouble("durationMillis", (double) session.getDurationMillis());
+            map.putArray("segments", segments);
+            sessions.pushMap(map);
+        }
+        promise.resolve(sessions);
+    }
+
+    @ReactMethod
+    public void deleteSpooledSession(String id, Promise promise) {
+        promise.resolve(GoogleCloudVoice.audioSpool(reactContext, AudioSpool.DEFAULT_MAX_BYTES).delete(id));
+    }
+
     @ReactMethod
     public void getSpeechRecognitionServices(Promise promise) {
         WritableArray serviceNames = Arguments.createArray();
@@ -243,6 +505,41 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
         promise.resolve(serviceNames);
     }
 
+    /**
+     * Resolves with the recognition timings of this process, see {@link SpeechMetrics}.
+     * Durations are in milliseconds.
+     */
+    @ReactMethod
+    public void getSpeechMetrics(Promise promise) {
+        SpeechMetrics metrics = SpeechMetrics.getInstance();
+        WritableMap histograms = Arguments.createMap();
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.histograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            WritableMap summary = Arguments.createMap();
+            summary.putDouble("count", (double) histogram.count());
+            summary.putDouble("min", histogram.minMillis());
+            summary.putDouble("mean", histogram.meanMillis());
+            summary.putDouble("p50", histogram.percentileMillis(50));
+            summary.putDouble("p90", histogram.percentileMillis(90));
+            summary.putDouble("p99", histogram.percentileMillis(99));
+            summary.putDouble("max", histogram.maxMillis());
+            histograms.putMap(entry.getKey(), summary);
+        }
+        WritableMap counters = Arguments.createMap();
+        for (Map.Entry<String, Long> entry : metrics.counters().entrySet()) {
+            counters.putDouble(entry.getKey(), (double) entry.getValue());
+        }
+        WritableMap result = Arguments.createMap();
+        result.putMap("histograms", histograms);
+        result.putMap("counters", counters);
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void resetSpeechMetrics() {
+        SpeechMetrics.getInstance().reset();
+    }
+
     private boolean isPermissionGranted() {
         String permission = Manifest.permission.RECORD_AUDIO;
         int res = getReactApplicationContext().checkCallingOrSelfPermission(permission);
@@ -260,27 +557,48 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
                 .emit(eventName, params);
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        BatchTranscriber running;
+        synchronized (this) {
+            running = transcriber;
+        }
+        if (running != null) {
+            running.cancel();
+        }
+        engine.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (speech != null) {
+                    // also frees a recorder created by prepareSpeech
+                    speech.destroy();
+                    speech = null;
+                }
+            }
+        });
+        engine.shutdown();
+        eventDispatcher.shutdown();
+    }
+
     @Override
     public void onBeginningOfSpeech() {
         WritableMap event = Arguments.createMap();
         event.putBoolean("error", false);
-        sendEvent("onSpeechStart", event);
+        eventDispatcher.send("onSpeechStart", event);
         Log.d("ASR", "onBeginningOfSpeech()");
     }
 
     @Override
     public void onBufferReceived(byte[] buffer) {
-        WritableMap event = Arguments.createMap();
-        event.putBoolean("error", false);
-        sendEvent("onSpeechRecognized", event);
-        Log.d("ASR", "onBufferReceived()");
+        eventDispatcher.bufferReceived();
     }
 
     @Override
     public void onEndOfSpeech() {
         WritableMap event = Arguments.createMap();
         event.putBoolean("error", false);
-        sendEvent("onSpeechEnd", event);
+        eventDispatcher.send("onSpeechEnd", event);
         Log.d("ASR", "onEndOfSpeech()");
         isRecognizing = false;
     }
@@ -292,7 +610,7 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
         error.putString("message", errorMessage);
         WritableMap event = Arguments.createMap();
         event.putMap("error", error);
-        sendEvent("onSpeechError", event);
+        eventDispatcher.send("onSpeechError", event);
         Log.d("ASR", "onError() - " + errorMessage);
     }
 
@@ -302,22 +620,17 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
 
     @Override
     public void onPartialResults(Bundle results) {
-        WritableArray arr = Arguments.createArray();
         ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
-        for (String result : matches) {
-            arr.pushString(result);
+        if (matches != null) {
+            eventDispatcher.partialResults(matches);
         }
-        WritableMap event = Arguments.createMap();
-        event.putArray("value", arr);
-        sendEvent("onSpeechPartialResults", event);
-        Log.d("ASR", "onPartialResults()");
     }
 
     @Override
     public void onReadyForSpeech(Bundle arg0) {
         WritableMap event = Arguments.createMap();
         event.putBoolean("error", false);
-        sendEvent("onSpeechStart", event);
+        eventDispatcher.send("onSpeechStart", event);
         Log.d("ASR", "onReadyForSpeech()");
     }
 
@@ -332,15 +645,63 @@ public class SpeechEngineModule extends ReactContextBaseJavaModule implements Re
 
         WritableMap event = Arguments.createMap();
         event.putArray("value", arr);
-        sendEvent("onSpeechResults", event);
+        eventDispatcher.send("onSpeechResults", event);
         Log.d("ASR", "onResults()");
     }
 
+    /**
+     * Receives results instead of {@link #onPartialResults} and {@link #onResults}. Final
+     * results carry every alternative with its confidence and word times.
+     */
     @Override
-    public void onRmsChanged(float rmsdB) {
+    public void onRecognitionResult(@NonNull RecognitionResult result) {
+        List<RecognitionResult.Alternative> alternatives = result.getAlternatives();
+        if (!transcriptDeltas) {
+            List<String> transcripts = new ArrayList<>(alternatives.size());
+            for (RecognitionResult.Alternative alternative : alternatives) {
+                transcripts.add(alternative.getTranscript());
+            }
+            eventDispatcher.partialResults(transcripts, result.getStability());
+        }
+        if (!result.isFinal() || result.getTranscript().isEmpty()) {
+            return;
+        }
+        WritableArray value = Arguments.createArray();
+        WritableArray alternativeArray = Arguments.createArray();
+        for (RecognitionResult.Alternative alternative : alternatives) {
+            value.pushString(alternative.getTranscript());
+            WritableArray words = Arguments.createArray();
+            for (RecognitionResult.Word word : alternative.getWords()) {
+                WritableMap wordMap = Arguments.createMap();
+                wordMap.putString("word", word.getWord());
+                wordMap.putDouble("startMillis", (double) word.getStartMillis());
+                wordMap.putDouble("endMillis", (double) word.getEndMillis());
+                words.pushMap(wordMap);
+            }
+            WritableMap alternativeMap = Arguments.createMap();
+            alternativeMap.putString("transcript", alternative.getTranscript());
+            alternativeMap.putDouble("confidence", (double) alternative.getConfidence());
+            alternativeMap.putArray("words", words);
+            alternativeArray.pushMap(alternativeMap);
+        }
         WritableMap event = Arguments.createMap();
-        event.putDouble("value", (double) rmsdB);
-        sendEvent("onSpeechVolumeChanged", event);
+        event.putArray("value", value);
+        event.putArray("alternatives", alternativeArray);
+        eventDispatcher.send("onSpeechResults", event);
+        Log.d("ASR", "onRecognitionResult()");
+    }
+
+    /**
+     * With {@code TRANSCRIPT_DELTAS} these changes replace the full text partial results.
+     */
+    @Override
+    public void onTranscriptChanged(@NonNull TranscriptDelta delta) {
+        eventDispatcher.transcriptChanged(delta);
+    }
+
+    @Override
+    public void onRmsChanged(float rmsdB) {
+        eventDispatcher.volumeChanged(rmsdB);
     }
 
     public static String getErrorText(int errorCode) {
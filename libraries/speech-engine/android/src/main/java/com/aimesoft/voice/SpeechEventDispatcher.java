@@ -0,0 +1,199 @@
+package com.aimesoft.voice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.SpeechScheduler;
+import com.aimesoft.googlevoice.TranscriptDelta;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Optionally coalesces high frequency recognizer callbacks into one {@code onSpeechFrame}
+ * event per frame. Within a frame only the latest volume and partial result are kept,
+ * transcript changes are merged into one and received buffers are counted. Other events
+ * flush the pending frame first, so they keep their order.
+ * <p>
+ * The default rate of 0 sends every callback as its own event under its usual name, so
+ * listeners that do not know about frames keep working. Coalescing is enabled by
+ * {@link #setRate(int)}.
+ */
+class SpeechEventDispatcher {
+    static final int DEFAULT_RATE_HZ = 0;
+    static final String FRAME_EVENT = "onSpeechFrame";
+
+    interface Emitter {
+        void emit(@NonNull String eventName, @Nullable WritableMap params);
+    }
+
+    private final Emitter emitter;
+    private final ScheduledExecutorService scheduler = SpeechScheduler.get();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SpeechEventDispatcher.this) {
+                flushScheduled = false;
+                flushFuture = null;
+                flushLocked();
+            }
+        }
+    };
+
+    private long periodNanos;
+    private long lastFlush;
+    private boolean flushScheduled;
+    private ScheduledFuture<?> flushFuture;
+    private boolean shutdown;
+    private boolean hasVolume;
+    private float volume;
+    private List<String> partialResults;
+    private float stability;
+    private TranscriptDelta transcriptDelta;
+    private int recognizedCount;
+
+    SpeechEventDispatcher(@NonNull Emitter emitter) {
+        this.emitter = emitter;
+        setRate(DEFAULT_RATE_HZ);
+    }
+
+    synchronized void setRate(int rateHz) {
+        flushLocked();
+        periodNanos = rateHz > 0 ? TimeUnit.SECONDS.toNanos(1) / rateHz : 0;
+    }
+
+    synchronized void volumeChanged(float value) {
+        if (periodNanos == 0) {
+            WritableMap event = Arguments.createMap();
+            event.putDouble("value", (double) value);
+            emitter.emit("onSpeechVolumeChanged", event);
+            return;
+        }
+        volume = value;
+        hasVolume = true;
+        scheduleFlush();
+    }
+
+    synchronized void partialResults(@NonNull List<String> values) {
+        partialResults(values, 0f);
+    }
+
+    /**
+     * @param stability how likely the partial result is to stay the same, 0 when not known
+     */
+    synchronized void partialResults(@NonNull List<String> values, float stability) {
+        if (periodNanos == 0) {
+            WritableMap event = Arguments.createMap();
+            event.putArray("value", toArray(values));
+            if (stability > 0) {
+                event.putDouble("stability", (double) stability);
+            }
+            emitter.emit("onSpeechPartialResults", event);
+            return;
+        }
+        partialResults = values;
+        this.stability = stability;
+        scheduleFlush();
+    }
+
+    synchronized void transcriptChanged(@NonNull TranscriptDelta delta) {
+        if (periodNanos == 0) {
+            emitter.emit("onSpeechTranscript", toMap(delta));
+            return;
+        }
+        transcriptDelta = transcriptDelta == null ? delta : transcriptDelta.then(delta);
+        scheduleFlush();
+    }
+
+    synchronized void bufferReceived() {
+        if (periodNanos == 0) {
+            WritableMap event = Arguments.createMap();
+            event.putBoolean("error", false);
+            emitter.emit("onSpeechRecognized", event);
+            return;
+        }
+        recognizedCount++;
+        scheduleFlush();
+    }
+
+    /**
+     * Sends an event that must not be coalesced, after the pending frame.
+     */
+    synchronized void send(@NonNull String eventName, @Nullable WritableMap params) {
+        flushLocked();
+        emitter.emit(eventName, params);
+    }
+
+    /**
+     * Drops the pending frame. The scheduler is shared, so only this dispatcher's flush is
+     * cancelled.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || shutdown) {
+            return;
+        }
+        flushScheduled = true;
+        long delay = Math.min(periodNanos, Math.max(0, lastFlush + periodNanos - System.nanoTime()));
+        flushFuture = scheduler.schedule(flushTask, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flushLocked() {
+        if (!hasVolume && partialResults == null && transcriptDelta == null && recognizedCount == 0) {
+            return;
+        }
+        WritableMap frame = Arguments.createMap();
+        if (hasVolume) {
+            frame.putDouble("volume", (double) volume);
+        }
+        if (partialResults != null) {
+            frame.putArray("partial", toArray(partialResults));
+            if (stability > 0) {
+                frame.putDouble("stability", (double) stability);
+            }
+        }
+        if (transcriptDelta != null) {
+            frame.putMap("transcript", toMap(transcriptDelta));
+        }
+        if (recognizedCount > 0) {
+            frame.putInt("recognized", recognizedCount);
+        }
+        hasVolume = false;
+        partialResults = null;
+        transcriptDelta = null;
+        recognizedCount = 0;
+        lastFlush = System.nanoTime();
+        emitter.emit(FRAME_EVENT, frame);
+    }
+
+    @NonNull
+    private static WritableMap toMap(@NonNull TranscriptDelta delta) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("offset", delta.getOffset());
+        map.putInt("removed", delta.getRemovedLength());
+        map.putString("inserted", delta.getInserted());
+        return map;
+    }
+
+    @NonNull
+    private static WritableArray toArray(@NonNull List<String> values) {
+        WritableArray array = Arguments.createArray();
+        for (String value : values) {
+            array.pushString(value);
+        }
+        return array;
+    }
+}
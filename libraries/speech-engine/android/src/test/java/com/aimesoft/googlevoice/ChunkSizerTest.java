@@ -0,0 +1,64 @@
+package com.aimesoft.googlevoice;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkSizerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    // 32 bytes per millisecond
+    private static final int BYTES_PER_MILLI = 32;
+
+    @Test
+    public void startsAtInitialSizeInWholeFrames() {
+        ChunkSizer sizer = new ChunkSizer(16000, 1, 20, 200, 100);
+        assertEquals(20 * BYTES_PER_MILLI, sizer.minChunkBytes());
+        assertEquals(200 * BYTES_PER_MILLI, sizer.maxChunkBytes());
+        assertEquals(100 * BYTES_PER_MILLI, sizer.nextChunkBytes());
+        assertEquals(0, new ChunkSizer(11025, 2, 20, 200, 100).nextChunkBytes() % 4);
+    }
+
+    @Test
+    public void shrinksWhileTheLinkKeepsUp() {
+        ChunkSizer sizer = new ChunkSizer(16000, 1, 20, 200, 100);
+        long now = System.nanoTime();
+        sizer.onSend(TimeUnit.MILLISECONDS.toNanos(1), false);
+        sizer.onResponse(100);
+        assertEquals(70 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND));
+        for (int i = 2; i < 20; i++) {
+            sizer.nextChunkBytes(now + i * SECOND);
+        }
+        assertEquals(20 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + 20 * SECOND));
+    }
+
+    @Test
+    public void growsWhenResultsFallBehind() {
+        ChunkSizer sizer = new ChunkSizer(16000, 1, 20, 200, 100);
+        long now = System.nanoTime();
+        sizer.onResponse(2000);
+        assertEquals(150 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND));
+        assertEquals(200 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + 2 * SECOND));
+    }
+
+    @Test
+    public void growsOnceAfterBackpressure() {
+        ChunkSizer sizer = new ChunkSizer(16000, 1, 20, 400, 100);
+        long now = System.nanoTime();
+        sizer.onSend(0, true);
+        assertEquals(150 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND));
+        // no result yet, so nothing says the link keeps up
+        assertEquals(150 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + 2 * SECOND));
+    }
+
+    @Test
+    public void adjustsAtMostOncePerSecond() {
+        ChunkSizer sizer = new ChunkSizer(16000, 1, 20, 400, 100);
+        long now = System.nanoTime();
+        sizer.onResponse(2000);
+        assertEquals(100 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND / 2));
+        assertEquals(150 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND));
+        assertEquals(150 * BYTES_PER_MILLI, sizer.nextChunkBytes(now + SECOND + SECOND / 2));
+    }
+}
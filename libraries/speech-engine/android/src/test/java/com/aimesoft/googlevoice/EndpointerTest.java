@@ -0,0 +1,105 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.audio.VoiceActivityDetector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointerTest {
+    // 16 kHz mono, 32 bytes per millisecond
+    private static final int BYTES_PER_MILLI = 32;
+
+    /**
+     * Audio is speech where its first byte is not zero.
+     */
+    private final VoiceActivityDetector detector = new VoiceActivityDetector() {
+        @Override
+        public boolean isSpeech(@NonNull ByteBuffer buffer) {
+            return buffer.get(buffer.position()) != 0;
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    @Test
+    public void silenceAloneNeverEnds() {
+        Endpointer endpointer = new Endpointer(detector, 16000, 1, 500);
+        assertFalse(endpointer.process(audio(0, 2000)));
+    }
+
+    @Test
+    public void endsOnceAfterTrailingSilence() {
+        Endpointer endpointer = new Endpointer(detector, 16000, 1, 500);
+        assertFalse(endpointer.process(audio(1, 300)));
+        assertFalse(endpointer.process(audio(0, 480)));
+        assertTrue(endpointer.process(audio(0, 20)));
+        assertFalse(endpointer.process(audio(0, 1000)));
+    }
+
+    @Test
+    public void speechRestartsTheSilence() {
+        Endpointer endpointer = new Endpointer(detector, 16000, 1, 500);
+        assertFalse(endpointer.process(audio(1, 100)));
+        assertFalse(endpointer.process(audio(0, 400)));
+        assertFalse(endpointer.process(audio(1, 20)));
+        assertFalse(endpointer.process(audio(0, 400)));
+        assertTrue(endpointer.process(audio(0, 100)));
+    }
+
+    @Test
+    public void endDoesNotDependOnChunkSize() {
+        for (int chunkBytes : new int[]{100, 6 * BYTES_PER_MILLI, 640, 1000 * BYTES_PER_MILLI}) {
+            ByteBuffer chunk = endChunk(chunkBytes);
+            // 300 ms of speech and 500 ms of silence
+            int end = 800 * BYTES_PER_MILLI;
+            assertTrue(chunk.position() < end && chunk.limit() >= end);
+        }
+    }
+
+    @Test
+    public void keepsBufferPosition() {
+        Endpointer endpointer = new Endpointer(detector, 16000, 1, 500);
+        ByteBuffer buffer = audio(1, 100);
+        buffer.position(64);
+        endpointer.process(buffer);
+        assertEquals(64, buffer.position());
+        assertEquals(100 * BYTES_PER_MILLI, buffer.limit());
+    }
+
+    /**
+     * @return the chunk of 300 ms of speech and then silence in which the end is found
+     */
+    private ByteBuffer endChunk(int chunkBytes) {
+        Endpointer endpointer = new Endpointer(detector, 16000, 1, 500);
+        ByteBuffer speech = audio(1, 300);
+        ByteBuffer silence = audio(0, 1000);
+        ByteBuffer all = ByteBuffer.allocate(speech.capacity() + silence.capacity());
+        all.put(speech).put(silence).flip();
+        for (int start = 0; start < all.capacity(); start += chunkBytes) {
+            ByteBuffer chunk = all.duplicate();
+            chunk.limit(Math.min(all.capacity(), start + chunkBytes)).position(start);
+            if (endpointer.process(chunk)) {
+                return chunk;
+            }
+        }
+        throw new AssertionError("no end found");
+    }
+
+    private static ByteBuffer audio(int value, int millis) {
+        ByteBuffer buffer = ByteBuffer.allocate(millis * BYTES_PER_MILLI);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,142 @@
+package com.aimesoft.googlevoice;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.speech.RecognitionListener;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.audio.FileAudioStream;
+import com.aimesoft.googlevoice.testing.FakeSpeechServer;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GoogleCloudVoiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeSpeechServer server;
+
+    @After
+    public void shutdown() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void replaysAudioWhenLastStreamFailsAfterStop() throws Exception {
+        // the last chunk of the file fails the stream, the error comes after the stream is closed
+        server = new FakeSpeechServer("drain-failure", new FakeSpeechServer.Config.Builder()
+                .responseDelayMillis(200)
+                .interimIntervalMillis(0)
+                .finalIntervalMillis(1000)
+                .errorAfterMillis(2000, Status.UNAVAILABLE)
+                .build()).start();
+        File audio = folder.newFile("speech.pcm");
+        FileOutputStream output = new FileOutputStream(audio);
+        try {
+            output.write(new byte[16000 * 2 * 2]);
+        } finally {
+            output.close();
+        }
+        GoogleCloudVoice voice = new GoogleCloudVoice(new TestContext());
+        Listener listener = new Listener();
+        voice.setRecognitionListener(listener);
+        voice.startListening(new GoogleCloudVoice.RecognitionRequest.Builder("key")
+                .endpoint(server.endpoint())
+                .autoStop(false)
+                .rmsDBOut(false)
+                .build(), new FileAudioStream(audio, 16000, 1, false));
+
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        assertEquals(-1, listener.error);
+        // the audio after the first final result is recognized by a second stream
+        assertEquals(2, server.streamCount());
+        assertEquals(2, listener.finals.size());
+    }
+
+    private static class TestContext extends ContextWrapper {
+        TestContext() {
+            super(null);
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public String getPackageName() {
+            return "com.aimesoft.googlevoice.test";
+        }
+    }
+
+    private static class Listener implements RecognitionListener, RecognitionResultListener {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<RecognitionResult> finals = new CopyOnWriteArrayList<>();
+        private volatile int error = -1;
+
+        @Override
+        public void onRecognitionResult(@NonNull RecognitionResult result) {
+            if (result.isFinal()) {
+                finals.add(result);
+            }
+        }
+
+        @Override
+        public void onEndOfSpeech() {
+            done.countDown();
+        }
+
+        @Override
+        public void onError(int error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        @Override
+        public void onReadyForSpeech(Bundle params) {
+        }
+
+        @Override
+        public void onBeginningOfSpeech() {
+        }
+
+        @Override
+        public void onRmsChanged(float rmsdB) {
+        }
+
+        @Override
+        public void onBufferReceived(byte[] buffer) {
+        }
+
+        @Override
+        public void onResults(Bundle results) {
+        }
+
+        @Override
+        public void onPartialResults(Bundle partialResults) {
+        }
+
+        @Override
+        public void onEvent(int eventType, Bundle params) {
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.aimesoft.googlevoice;
+
+import org.junit.Test;
+
+import java.net.SocketException;
+
+import io.grpc.Status;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamRetryTest {
+    @Test
+    public void retriesNetworkTrouble() {
+        assertTrue(StreamRetry.isRetryable(Status.UNAVAILABLE.asRuntimeException()));
+        assertTrue(StreamRetry.isRetryable(Status.DEADLINE_EXCEEDED.asRuntimeException()));
+        assertTrue(StreamRetry.isRetryable(Status.INTERNAL.withDescription("Rst Stream").asRuntimeException()));
+        assertTrue(StreamRetry.isRetryable(Status.UNKNOWN.withCause(new SocketException("reset")).asRuntimeException()));
+    }
+
+    @Test
+    public void endsOnErrorsANewStreamWouldHitAgain() {
+        assertFalse(StreamRetry.isRetryable(Status.PERMISSION_DENIED.asRuntimeException()));
+        assertFalse(StreamRetry.isRetryable(Status.INVALID_ARGUMENT.asRuntimeException()));
+        assertFalse(StreamRetry.isRetryable(Status.RESOURCE_EXHAUSTED.asRuntimeException()));
+        // the message alone does not make an error retryable
+        assertFalse(StreamRetry.isRetryable(Status.UNKNOWN.withDescription("RST_STREAM").asRuntimeException()));
+    }
+
+    @Test
+    public void delayGrowsWithJitter() {
+        StreamRetry retry = new StreamRetry();
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long delay = retry.delayMillis(attempt);
+            long full = Math.min(4000, 250L << Math.min(attempt, 16));
+            assertTrue(delay >= full / 2 && delay <= full);
+        }
+    }
+}
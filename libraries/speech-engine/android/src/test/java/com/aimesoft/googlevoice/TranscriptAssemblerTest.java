@@ -0,0 +1,69 @@
+package com.aimesoft.googlevoice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TranscriptAssemblerTest {
+    @Test
+    public void deltasRebuildTheTranscript() {
+        TranscriptAssembler assembler = new TranscriptAssembler(" ");
+        StringBuilder text = new StringBuilder();
+        apply(text, assembler.update("hello", false));
+        apply(text, assembler.update("hello word", false));
+        apply(text, assembler.update("hello world", true));
+        apply(text, assembler.update("how", false));
+        apply(text, assembler.update("how are you", true));
+        assertEquals("hello world how are you", text.toString());
+        assertEquals(text.toString(), assembler.text());
+    }
+
+    @Test
+    public void deltaCoversOnlyTheChangedTail() {
+        TranscriptAssembler assembler = new TranscriptAssembler(" ");
+        assembler.update("one", true);
+        assembler.update("two three", false);
+        TranscriptDelta delta = assembler.update("two tree", false);
+        assertEquals("one two t".length(), delta.getOffset());
+        assertEquals("hree".length(), delta.getRemovedLength());
+        assertEquals("ree", delta.getInserted());
+        assertNull(assembler.update("two tree", false));
+    }
+
+    @Test
+    public void unspacedLanguagesHaveNoSeparator() {
+        TranscriptAssembler assembler = new TranscriptAssembler(GoogleCloudVoice.wordSeparator("ja-JP"));
+        assembler.update("こんにちは", true);
+        assembler.update("世界", true);
+        assertEquals("こんにちは世界", assembler.text());
+        assertEquals(" ", GoogleCloudVoice.wordSeparator("en-US"));
+        assertEquals(" ", GoogleCloudVoice.wordSeparator(null));
+    }
+
+    @Test
+    public void doesNotSplitSurrogatePairs() {
+        TranscriptAssembler assembler = new TranscriptAssembler(" ");
+        assembler.update("ok 😀", false);
+        TranscriptDelta delta = assembler.update("ok 😁", false);
+        assertEquals(3, delta.getOffset());
+        assertEquals("😁", delta.getInserted());
+    }
+
+    @Test
+    public void mergedDeltasMatchTheirSequence() {
+        TranscriptAssembler assembler = new TranscriptAssembler(" ");
+        StringBuilder text = new StringBuilder();
+        apply(text, assembler.update("a b c", false));
+        TranscriptDelta first = assembler.update("a b d", false);
+        TranscriptDelta second = assembler.update("a x", false);
+        apply(text, first.then(second));
+        assertEquals(assembler.text(), text.toString());
+    }
+
+    private static void apply(StringBuilder text, TranscriptDelta delta) {
+        if (delta != null) {
+            text.replace(delta.getOffset(), delta.getOffset() + delta.getRemovedLength(), delta.getInserted());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.aimesoft.googlevoice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TranscriptStitcherTest {
+    @Test
+    public void trimsRepeatedWords() {
+        assertEquals("and then home", TranscriptStitcher.trimOverlap("I will go to the park", "to the park and then home"));
+    }
+
+    @Test
+    public void ignoresCaseAndPunctuation() {
+        assertEquals("then home", TranscriptStitcher.trimOverlap("See you at the park.", "the Park then home"));
+    }
+
+    @Test
+    public void keepsWordThatOnlyStartsLikeTheEnd() {
+        assertEquals("2pm tomorrow", TranscriptStitcher.trimOverlap("meet me at 2", "2pm tomorrow"));
+        assertEquals("tomorrow", TranscriptStitcher.trimOverlap("go to", "tomorrow"));
+    }
+
+    @Test
+    public void needsTwoWords() {
+        assertEquals("world peace", TranscriptStitcher.trimOverlap("hello world", "world peace"));
+    }
+
+    @Test
+    public void trimsEverythingWhenAllRepeated() {
+        assertEquals("", TranscriptStitcher.trimOverlap("go to the park", "the park"));
+    }
+
+    @Test
+    public void leavesTextWithoutSpaces() {
+        assertEquals("公園に行きます", TranscriptStitcher.trimOverlap("明日は公園に", "公園に行きます"));
+    }
+
+    @Test
+    public void trimsRepeatedCharacters() {
+        assertEquals("行きます", TranscriptStitcher.trimCharacterOverlap("明日は公園に。", "公園に行きます"));
+    }
+
+    @Test
+    public void needsThreeCharacters() {
+        assertEquals("公園に行きます", TranscriptStitcher.trimCharacterOverlap("明日は公園", "公園に行きます"));
+    }
+
+    @Test
+    public void stitchesJapaneseRollover() {
+        TranscriptStitcher stitcher = new TranscriptStitcher(GoogleCloudVoice.wordSeparator("ja-JP"));
+        assertEquals("明日は公園に", stitcher.stitch(0, "明日は公園に", true));
+        assertEquals("行きます", stitcher.stitch(1, "公園に行きます", true));
+        assertEquals("公園に行きます", stitcher.stitch(1, "公園に行きます", true));
+    }
+
+    @Test
+    public void stitchesOnlyFirstFinalOfNewStream() {
+        TranscriptStitcher stitcher = new TranscriptStitcher(" ");
+        assertEquals("I will go to the park", stitcher.stitch(0, "I will go to the park", true));
+        assertEquals("and", stitcher.stitch(1, "the park and", false));
+        assertEquals("and then", stitcher.stitch(1, "the park and then", true));
+        assertEquals("the park again", stitcher.stitch(1, "the park again", true));
+    }
+}
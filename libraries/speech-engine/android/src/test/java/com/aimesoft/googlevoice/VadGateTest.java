@@ -0,0 +1,115 @@
+package com.aimesoft.googlevoice;
+
+import androidx.annotation.NonNull;
+
+import com.aimesoft.googlevoice.audio.VoiceActivityDetector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VadGateTest {
+    private boolean speech;
+    private final List<Integer> sent = new ArrayList<>();
+
+    private final VoiceActivityDetector detector = new VoiceActivityDetector() {
+        @Override
+        public boolean isSpeech(@NonNull ByteBuffer buffer) {
+            return speech;
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    private final AudioSink sink = new AudioSink() {
+        @Override
+        public void send(byte[] buffer, int offset, int length) {
+            sent.add(length);
+        }
+
+        @Override
+        public void send(@NonNull ByteBuffer buffer) {
+            sent.add(buffer.remaining());
+        }
+    };
+
+    @Test
+    public void holdsSilenceAndSendsPreRollBeforeSpeech() {
+        // 16 kHz mono, 100 ms pre-roll is 3200 bytes
+        VadGate gate = new VadGate(detector, 16000, 1, 10000, 100, 60000);
+        assertTrue("first chunk keeps the stream alive", gate.process(chunk(640), sink));
+        assertFalse(gate.process(chunk(640), sink));
+        assertFalse(gate.process(chunk(640), sink));
+        speech = true;
+        assertTrue(gate.process(chunk(640), sink));
+        assertTrue(gate.isSpeaking());
+        assertEquals(3, sent.size());
+        assertEquals(1280, (int) sent.get(1));
+        assertEquals(640, (int) sent.get(2));
+    }
+
+    @Test
+    public void sendsSilenceDuringHangover() {
+        VadGate gate = new VadGate(detector, 16000, 1, 10000, 0, 60000);
+        speech = true;
+        assertTrue(gate.process(chunk(640), sink));
+        speech = false;
+        assertTrue(gate.process(chunk(640), sink));
+        assertTrue(gate.isSpeaking());
+    }
+
+    @Test
+    public void stopsAfterHangover() {
+        VadGate gate = new VadGate(detector, 16000, 1, 0, 0, 60000);
+        speech = true;
+        gate.process(chunk(640), sink);
+        speech = false;
+        assertFalse(gate.process(chunk(640), sink));
+        assertFalse(gate.isSpeaking());
+    }
+
+    @Test
+    public void sendsKeepAliveWhileSilent() {
+        VadGate gate = new VadGate(detector, 16000, 1, 0, 100, 0);
+        assertTrue(gate.process(chunk(640), sink));
+        assertTrue(gate.process(chunk(640), sink));
+    }
+
+    @Test
+    public void hangoverIsCountedInAudio() {
+        // 100 ms of hangover is 3200 bytes, the silent 20 ms chunks that end within it are sent
+        VadGate gate = new VadGate(detector, 16000, 1, 100, 0, 60000);
+        speech = true;
+        gate.process(chunk(640), sink);
+        speech = false;
+        for (int i = 0; i < 4; i++) {
+            assertTrue(gate.process(chunk(640), sink));
+        }
+        assertFalse(gate.process(chunk(640), sink));
+        assertFalse(gate.isSpeaking());
+    }
+
+    @Test
+    public void keepAliveIsCountedInAudio() {
+        // a keep-alive every 200 ms, ten 20 ms chunks, however fast they come
+        VadGate gate = new VadGate(detector, 16000, 1, 0, 0, 200);
+        assertTrue(gate.process(chunk(640), sink));
+        for (int i = 0; i < 9; i++) {
+            assertFalse(gate.process(chunk(640), sink));
+        }
+        assertTrue(gate.process(chunk(640), sink));
+        assertFalse(gate.process(chunk(640), sink));
+    }
+
+    private static ByteBuffer chunk(int bytes) {
+        return ByteBuffer.allocateDirect(bytes);
+    }
+}
@@ -0,0 +1,136 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AudioCaptureThreadTest {
+    @Test
+    public void startFailureClosesTheRing() throws Exception {
+        IOException error = new IOException("cannot open");
+        FakeStream stream = new FakeStream(0, error);
+        AudioRingBuffer ring = new AudioRingBuffer(1024);
+        AudioCaptureThread capture = new AudioCaptureThread(stream, ring, new AudioBufferPool(256, 1));
+        capture.start();
+        capture.join(5000);
+        assertTrue(ring.isClosed());
+        assertEquals(-1, ring.read(new byte[16], 0, 16));
+        assertSame(error, capture.failure());
+    }
+
+    @Test
+    public void fileAudioWaitsForSpaceInsteadOfDropping() throws Exception {
+        int length = 64 * 1024;
+        FakeStream stream = new FakeStream(length, null);
+        AudioRingBuffer ring = new AudioRingBuffer(1024);
+        AudioCaptureThread capture = new AudioCaptureThread(stream, ring, new AudioBufferPool(256, 1));
+        capture.start();
+        byte[] chunk = new byte[100];
+        int total = 0;
+        long deadline = System.nanoTime() + 5000000000L;
+        while (System.nanoTime() < deadline) {
+            int read = ring.read(chunk, 0, chunk.length);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                assertEquals((byte) (total + i), chunk[i]);
+            }
+            total += read;
+            if (read == 0) {
+                ring.await(1, 1000000);
+            }
+        }
+        capture.join(5000);
+        assertEquals(length, total);
+        assertEquals(0, ring.overrunCount());
+    }
+
+    /**
+     * A stream that is not real time, producing {@code length} bytes counting up.
+     */
+    static class FakeStream implements AudioStream {
+        private final int length;
+        private final IOException startError;
+        private int position;
+        private boolean stopped;
+
+        FakeStream(int length, IOException startError) {
+            this.length = length;
+            this.startError = startError;
+        }
+
+        @Override
+        public void start() throws IOException {
+            if (startError != null) {
+                throw startError;
+            }
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offsetInByte, int size) {
+            int count = Math.min(size, length - position);
+            if (count <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < count; i++) {
+                buffer[offsetInByte + i] = (byte) position++;
+            }
+            return count;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int size) {
+            int count = Math.min(size, length - position);
+            if (count <= 0) {
+                return -1;
+            }
+            buffer.clear();
+            for (int i = 0; i < count; i++) {
+                buffer.put((byte) position++);
+            }
+            buffer.flip();
+            return count;
+        }
+
+        @Override
+        public int sampleRate() {
+            return 16000;
+        }
+
+        @Override
+        public int channels() {
+            return 1;
+        }
+
+        @Override
+        public int desireBufferSize() {
+            return 256;
+        }
+
+        @Override
+        public boolean stopped() {
+            return stopped;
+        }
+
+        @Override
+        public boolean isRealTime() {
+            return false;
+        }
+
+        @Override
+        public long lastReadTimeNanos() {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioRingBufferTest {
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new AudioRingBuffer(8).capacity());
+        assertEquals(16, new AudioRingBuffer(9).capacity());
+    }
+
+    @Test
+    public void readsWhatWasWrittenAcrossTheWrap() {
+        AudioRingBuffer ring = new AudioRingBuffer(8);
+        byte[] out = new byte[8];
+        assertEquals(6, ring.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertEquals(6, ring.read(out, 0, 6));
+        assertEquals(6, ring.write(new byte[]{7, 8, 9, 10, 11, 12}, 0, 6));
+        assertEquals(6, ring.available());
+        assertEquals(6, ring.read(out, 0, 8));
+        assertArrayEquals(new byte[]{7, 8, 9, 10, 11, 12}, Arrays.copyOf(out, 6));
+    }
+
+    @Test
+    public void dropsWhatDoesNotFitInWholeSamples() {
+        AudioRingBuffer ring = new AudioRingBuffer(8);
+        assertEquals(6, ring.write(new byte[6], 0, 6));
+        assertEquals(2, ring.write(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+        assertEquals(1, ring.overrunCount());
+        assertEquals(3, ring.droppedBytes());
+        assertEquals(0, ring.write(new byte[2], 0, 2));
+        assertEquals(2, ring.overrunCount());
+    }
+
+    @Test
+    public void movesByteBuffers() {
+        AudioRingBuffer ring = new AudioRingBuffer(8);
+        ByteBuffer in = ByteBuffer.allocateDirect(4);
+        in.put(new byte[]{1, 2, 3, 4}).flip();
+        assertEquals(4, ring.write(in));
+        assertEquals(0, in.remaining());
+        ByteBuffer out = ByteBuffer.allocateDirect(8);
+        assertEquals(3, ring.read(out, 3));
+        assertEquals(0, out.position());
+        assertEquals(3, out.limit());
+        assertEquals(1, out.get(0));
+        assertEquals(1, ring.available());
+    }
+
+    @Test
+    public void reportsEndAfterCloseAndDrain() {
+        AudioRingBuffer ring = new AudioRingBuffer(8);
+        byte[] out = new byte[8];
+        assertEquals(0, ring.read(out, 0, 8));
+        ring.write(new byte[]{1, 2}, 0, 2);
+        ring.close();
+        assertEquals(2, ring.read(out, 0, 8));
+        assertEquals(-1, ring.read(out, 0, 8));
+    }
+
+    @Test
+    public void awaitReturnsOnWrite() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ring.write(new byte[16], 0, 16);
+            }
+        });
+        producer.start();
+        assertEquals(16, ring.await(16, TimeUnit.SECONDS.toNanos(5)));
+        producer.join();
+    }
+
+    @Test
+    public void awaitSpaceReturnsOnRead() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(16);
+        ring.write(new byte[16], 0, 16);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ring.read(new byte[8], 0, 8);
+            }
+        });
+        consumer.start();
+        assertEquals(8, ring.awaitSpace(8, TimeUnit.SECONDS.toNanos(5)));
+        consumer.join();
+        assertEquals(8, ring.awaitSpace(16, TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void awaitReturnsOnWakeAndTimeout() {
+        AudioRingBuffer ring = new AudioRingBuffer(64);
+        ring.wakeConsumer();
+        assertEquals(0, ring.await(16, TimeUnit.SECONDS.toNanos(5)));
+        long start = System.nanoTime();
+        assertEquals(0, ring.await(16, TimeUnit.MILLISECONDS.toNanos(20)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+}
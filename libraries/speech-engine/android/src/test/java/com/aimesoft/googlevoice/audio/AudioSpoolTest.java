@@ -0,0 +1,124 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keptSessionIsPending() throws Exception {
+        AudioSpool spool = new AudioSpool(folder.getRoot(), AudioSpool.DEFAULT_MAX_BYTES, 1000);
+        AudioSpool.Session session = spool.open(1000, 1, "en-US");
+        ByteBuffer audio = ByteBuffer.allocate(5000);
+        audio.position(1000);
+        session.write(audio);
+        assertEquals(1000, audio.position());
+        assertTrue(spool.pendingSessions().isEmpty());
+        session.close(true);
+
+        AudioSpool.SpooledSession pending = awaitPending(spool);
+        assertEquals(session.id(), pending.getId());
+        assertEquals("en-US", pending.getLanguage());
+        assertEquals(2, pending.getSegments().size());
+        assertEquals(2000, pending.getDurationMillis());
+    }
+
+    @Test
+    public void commitDeletesRecognizedSegments() throws Exception {
+        AudioSpool spool = new AudioSpool(folder.getRoot(), AudioSpool.DEFAULT_MAX_BYTES, 1000);
+        AudioSpool.Session session = spool.open(1000, 1, null);
+        session.write(ByteBuffer.allocate(5000));
+        session.commit(4500);
+        session.close(true);
+
+        List<File> segments = awaitPending(spool).getSegments();
+        assertEquals(1, segments.size());
+        assertEquals("000002.pcm", segments.get(0).getName());
+    }
+
+    @Test
+    public void closedSessionIsDeleted() throws Exception {
+        AudioSpool spool = new AudioSpool(folder.getRoot());
+        AudioSpool.Session session = spool.open(16000, 1, null);
+        session.write(ByteBuffer.allocate(3200));
+        session.close(false);
+
+        File directory = new File(folder.getRoot(), session.id());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (directory.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void brokenSessionsAreDeleted() throws Exception {
+        File noProperties = folder.newFolder("1-noprops");
+        write(new File(noProperties, "000000.pcm"), 100);
+        File noAudio = folder.newFolder("2-noaudio");
+        write(new File(noAudio, "session.properties"), "sampleRate=16000\nchannels=1\n");
+        File badProperties = folder.newFolder("3-badprops");
+        write(new File(badProperties, "session.properties"), "sampleRate=fast\nchannels=1\n");
+        write(new File(badProperties, "000000.pcm"), 100);
+
+        assertTrue(new AudioSpool(folder.getRoot()).pendingSessions().isEmpty());
+        assertFalse(noProperties.exists());
+        assertFalse(noAudio.exists());
+        assertFalse(badProperties.exists());
+    }
+
+    @Test
+    public void halfSampleIsTruncated() throws Exception {
+        File directory = folder.newFolder("1-torn");
+        write(new File(directory, "session.properties"), "sampleRate=1000\nchannels=1\ncreatedAt=1\n");
+        File segment = new File(directory, "000000.pcm");
+        write(segment, 101);
+
+        List<AudioSpool.SpooledSession> sessions = new AudioSpool(folder.getRoot()).pendingSessions();
+        assertEquals(1, sessions.size());
+        assertEquals(100, segment.length());
+    }
+
+    private static AudioSpool.SpooledSession awaitPending(AudioSpool spool) throws InterruptedException {
+        // the writer thread finishes the session after close returns
+        long deadline = System.currentTimeMillis() + 5000;
+        List<AudioSpool.SpooledSession> sessions = spool.pendingSessions();
+        while (sessions.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            sessions = spool.pendingSessions();
+        }
+        assertEquals(1, sessions.size());
+        return sessions.get(0);
+    }
+
+    private static void write(File file, int bytes) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[bytes]);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void write(File file, String text) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(text.getBytes("ISO-8859-1"));
+        } finally {
+            output.close();
+        }
+    }
+}
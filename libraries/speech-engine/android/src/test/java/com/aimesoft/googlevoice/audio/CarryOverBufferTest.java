@@ -0,0 +1,59 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CarryOverBufferTest {
+    @Test
+    public void keepsCapacityRoundedToWholeSamples() {
+        assertEquals(10, new CarryOverBuffer(11).capacity());
+        assertEquals(3200, CarryOverBuffer.forDuration(16000, 1, 100).capacity());
+    }
+
+    @Test
+    public void replaysMostRecentBytesOldestFirst() {
+        CarryOverBuffer buffer = new CarryOverBuffer(6);
+        buffer.write(new byte[]{1, 2, 3, 4}, 0, 4);
+        buffer.write(new byte[]{5, 6, 7, 8}, 0, 4);
+        byte[] out = new byte[6];
+        assertEquals(6, buffer.read(out));
+        assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8}, out);
+    }
+
+    @Test
+    public void keepsTailOfLargeWrite() {
+        CarryOverBuffer buffer = new CarryOverBuffer(4);
+        buffer.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+        byte[] out = new byte[4];
+        assertEquals(4, buffer.read(out));
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, out);
+    }
+
+    @Test
+    public void writesByteBufferWithoutMovingIt() {
+        CarryOverBuffer buffer = new CarryOverBuffer(4);
+        ByteBuffer audio = ByteBuffer.allocateDirect(6);
+        audio.put(new byte[]{1, 2, 3, 4, 5, 6}).flip();
+        audio.position(2);
+        buffer.write(audio);
+        assertEquals(2, audio.position());
+        byte[] out = new byte[4];
+        assertEquals(4, buffer.read(out));
+        assertArrayEquals(new byte[]{3, 4, 5, 6}, out);
+    }
+
+    @Test
+    public void readsOnlyWhatWasWritten() {
+        CarryOverBuffer buffer = new CarryOverBuffer(8);
+        buffer.write(new byte[]{1, 2}, 0, 2);
+        byte[] out = new byte[8];
+        assertEquals(2, buffer.read(out));
+        assertEquals(2, buffer.size());
+        buffer.clear();
+        assertEquals(0, buffer.read(out));
+    }
+}
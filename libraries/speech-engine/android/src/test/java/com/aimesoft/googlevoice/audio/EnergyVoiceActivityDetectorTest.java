@@ -0,0 +1,52 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EnergyVoiceActivityDetectorTest {
+    private final EnergyVoiceActivityDetector detector = new EnergyVoiceActivityDetector();
+
+    @Test
+    public void loudToneIsSpeech() {
+        assertTrue(detector.isSpeech(tone(0.5, 200)));
+    }
+
+    @Test
+    public void silenceAndQuietToneAreNot() {
+        assertFalse(detector.isSpeech(tone(0, 200)));
+        assertFalse(detector.isSpeech(tone(0.001, 200)));
+    }
+
+    @Test
+    public void quietNoisySoundCountsAsFricative() {
+        // about -45 dBFS, alternating sign on every sample
+        assertTrue(detector.isSpeech(tone(0.0056, 8000)));
+        assertFalse(detector.isSpeech(tone(0.0056, 200)));
+    }
+
+    @Test
+    public void keepsBufferPosition() {
+        ByteBuffer buffer = tone(0.5, 200);
+        buffer.position(2);
+        detector.isSpeech(buffer);
+        assertEquals(2, buffer.position());
+    }
+
+    /**
+     * 20 ms of a 16 kHz sine with the given peak amplitude, between 0 and 1.
+     */
+    static ByteBuffer tone(double amplitude, double frequency) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(640).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 320; i++) {
+            buffer.putShort((short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * (i + 0.5) / 16000)));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
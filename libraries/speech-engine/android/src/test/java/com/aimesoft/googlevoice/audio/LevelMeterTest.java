@@ -0,0 +1,88 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LevelMeterTest {
+    @Test
+    public void measuresSquareWave() {
+        LevelMeter meter = new LevelMeter(8);
+        assertTrue(meter.process(square(1000, 8), 0, 8));
+        assertEquals(1000f, meter.rms(), 0.01f);
+        assertEquals(1000f, meter.peak(), 0.01f);
+    }
+
+    @Test
+    public void windowSpansChunks() {
+        LevelMeter meter = new LevelMeter(8);
+        short[] samples = square(1000, 8);
+        assertFalse(meter.process(samples, 0, 5));
+        assertEquals(0f, meter.rms(), 0f);
+        assertTrue(meter.process(samples, 5, 3));
+        assertEquals(1000f, meter.rms(), 0.01f);
+    }
+
+    @Test
+    public void peakIsLargestMagnitude() {
+        LevelMeter meter = new LevelMeter(4);
+        meter.process(new short[]{0, -32768, 100, 0}, 0, 4);
+        assertEquals(32768f, meter.peak(), 0f);
+        assertEquals(Math.sqrt((32768.0 * 32768 + 100 * 100) / 4), meter.rms(), 0.5);
+    }
+
+    @Test
+    public void buffersMatchArraysInEitherOrder() {
+        short[] samples = new short[37];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 997 - 16000);
+        }
+        LevelMeter expected = new LevelMeter(37);
+        expected.process(samples, 0, samples.length);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (short s : samples) {
+                buffer.putShort(s);
+            }
+            buffer.flip();
+            buffer.order(order);
+            LevelMeter meter = new LevelMeter(37);
+            assertTrue(meter.process(buffer));
+            assertEquals(0, buffer.position());
+            assertEquals(expected.rms(), meter.rms(), 0.001f);
+            assertEquals(expected.peak(), meter.peak(), 0f);
+        }
+    }
+
+    @Test
+    public void halvingAmplitudeLosesSixDecibels() {
+        LevelMeter loud = new LevelMeter(8);
+        loud.process(square(16384, 8), 0, 8);
+        LevelMeter quiet = new LevelMeter(8);
+        quiet.process(square(8192, 8), 0, 8);
+        assertEquals(6.02f, loud.rmsDbfs() - quiet.rmsDbfs(), 0.01f);
+    }
+
+    @Test
+    public void resetDropsLevels() {
+        LevelMeter meter = LevelMeter.forDuration(16000, 1, 10);
+        assertEquals(160, meter.windowSamples());
+        meter.process(square(1000, 160), 0, 160);
+        meter.reset();
+        assertEquals(0f, meter.rms(), 0f);
+        assertEquals(0f, meter.peak(), 0f);
+    }
+
+    private static short[] square(int amplitude, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (i % 2 == 0 ? amplitude : -amplitude);
+        }
+        return samples;
+    }
+}
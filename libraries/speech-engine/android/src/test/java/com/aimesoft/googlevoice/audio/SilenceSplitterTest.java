@@ -0,0 +1,63 @@
+package com.aimesoft.googlevoice.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SilenceSplitterTest {
+    @Test
+    public void shortAudioIsOneSegment() {
+        SilenceSplitter splitter = new SilenceSplitter(1000, 1, 1000, 500);
+        List<ByteBuffer> segments = splitter.split(tone(1500, -1, -1));
+        assertEquals(1, segments.size());
+        assertEquals(1500, segments.get(0).remaining());
+        assertEquals(0, splitter.split(ByteBuffer.allocate(0)).size());
+    }
+
+    @Test
+    public void cutsInSilence() {
+        // 4000 bytes per second, so segments of at most 4000 bytes, searched back to 2000
+        SilenceSplitter splitter = new SilenceSplitter(1000, 2, 1000, 500);
+        List<ByteBuffer> segments = splitter.split(tone(10000, 3000, 3200));
+        int first = segments.get(0).remaining();
+        assertTrue(first > 3000 && first < 3200);
+        assertCovers(segments, 10000, 4000, 4);
+    }
+
+    @Test
+    public void cutsAtWholeSampleFrames() {
+        // 4012 bytes per second does not give whole stereo frames for 20 ms or 999 ms
+        SilenceSplitter splitter = new SilenceSplitter(1003, 2, 999, 700);
+        ByteBuffer audio = tone(44 + 20000, -1, -1);
+        audio.position(44);
+        assertCovers(splitter.split(audio), 20000, 4004, 4);
+    }
+
+    private static void assertCovers(List<ByteBuffer> segments, int total, int maxSegment, int blockAlign) {
+        int sum = 0;
+        for (ByteBuffer segment : segments) {
+            assertTrue(segment.remaining() <= maxSegment);
+            assertEquals(0, segment.remaining() % blockAlign);
+            sum += segment.remaining();
+        }
+        assertEquals(total, sum);
+    }
+
+    /**
+     * Loud 16 bit audio, silent between {@code silenceFrom} and {@code silenceTo}.
+     */
+    private static ByteBuffer tone(int bytes, int silenceFrom, int silenceTo) {
+        ByteBuffer audio = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < bytes / 2; i++) {
+            boolean silent = i * 2 >= silenceFrom && i * 2 < silenceTo;
+            audio.putShort((short) (silent ? 0 : (i % 2 == 0 ? 8000 : -8000)));
+        }
+        audio.flip();
+        return audio;
+    }
+}
@@ -0,0 +1,91 @@
+package com.aimesoft.googlevoice.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OggPageWriterTest {
+    private final List<byte[]> pages = new ArrayList<>();
+    private final AudioEncoder.Output output = new AudioEncoder.Output() {
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            pages.add(Arrays.copyOfRange(data, offset, offset + length));
+        }
+    };
+
+    @Test
+    public void writesPacketsOfAFlushInOnePage() {
+        OggPageWriter writer = new OggPageWriter(0x1234);
+        writer.addPacket(new byte[]{1, 2, 3}, 960, output);
+        writer.addPacket(new byte[300], 1920, output);
+        assertTrue(writer.hasPending());
+        writer.flush(false, output);
+        assertFalse(writer.hasPending());
+
+        assertEquals(1, pages.size());
+        ByteBuffer page = ByteBuffer.wrap(pages.get(0)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals('O', page.get(0));
+        assertEquals('S', page.get(3));
+        assertEquals(0x02, page.get(5));
+        assertEquals(1920, page.getLong(6));
+        assertEquals(0x1234, page.getInt(14));
+        assertEquals(0, page.getInt(18));
+        // 3 bytes take one lacing value, 300 bytes take 255 + 45
+        assertEquals(3, page.get(26));
+        assertEquals(3, page.get(27));
+        assertEquals((byte) 255, page.get(28));
+        assertEquals(45, page.get(29));
+        assertEquals(27 + 3 + 303, page.capacity());
+        assertCrc(pages.get(0));
+    }
+
+    @Test
+    public void marksOnlyFirstPageBeginAndLastEnd() {
+        OggPageWriter writer = new OggPageWriter(1);
+        writer.addPacket(new byte[]{1}, 1, output);
+        writer.flush(false, output);
+        writer.flush(false, output);
+        writer.flush(true, output);
+        assertEquals(2, pages.size());
+        assertEquals(0x02, pages.get(0)[5]);
+        assertEquals(0x04, pages.get(1)[5]);
+        assertEquals(1, pages.get(1)[18]);
+        assertEquals(0, pages.get(1)[26]);
+        assertCrc(pages.get(1));
+    }
+
+    @Test
+    public void startsNewPageWhenPacketDoesNotFit() {
+        OggPageWriter writer = new OggPageWriter(1);
+        for (int i = 0; i < 255; i++) {
+            writer.addPacket(new byte[]{(byte) i}, i, output);
+        }
+        assertEquals(0, pages.size());
+        writer.addPacket(new byte[]{0}, 255, output);
+        assertEquals(1, pages.size());
+        assertEquals((byte) 255, pages.get(0)[26]);
+        assertCrc(pages.get(0));
+    }
+
+    private static void assertCrc(byte[] page) {
+        byte[] copy = page.clone();
+        int expected = ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN).getInt(22);
+        Arrays.fill(copy, 22, 26, (byte) 0);
+        int crc = 0;
+        for (byte b : copy) {
+            crc ^= (b & 0xff) << 24;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+        }
+        assertEquals(expected, crc);
+    }
+}
@@ -0,0 +1,63 @@
+package com.aimesoft.googlevoice.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogramIsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.minMillis(), 0);
+        assertEquals(0, histogram.meanMillis(), 0);
+        assertEquals(0, histogram.percentileMillis(99), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.recordMillis(millis);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1, histogram.minMillis(), 0);
+        assertEquals(1000, histogram.maxMillis(), 0);
+        assertEquals(500.5, histogram.meanMillis(), 1e-9);
+        assertEquals(500, histogram.percentileMillis(50), 500 * 0.04);
+        assertEquals(990, histogram.percentileMillis(99), 990 * 0.04);
+        assertEquals(1000, histogram.percentileMillis(100), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 0; micros < 64; micros++) {
+            histogram.recordMicros(micros);
+        }
+        assertEquals(0.031, histogram.percentileMillis(50), 1e-9);
+        assertEquals(0.063, histogram.percentileMillis(100), 1e-9);
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-5);
+        histogram.recordMillis(5L * 60 * 60 * 1000);
+        assertEquals(0, histogram.minMillis(), 0);
+        assertEquals(60 * 60 * 1000, histogram.maxMillis(), 0);
+        assertEquals(60 * 60 * 1000, histogram.percentileMillis(100), 0);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMillis(42);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxMillis(), 0);
+        histogram.recordMillis(7);
+        assertEquals(7, histogram.minMillis(), 0);
+        assertEquals(7, histogram.percentileMillis(50), 7 * 0.04);
+    }
+}
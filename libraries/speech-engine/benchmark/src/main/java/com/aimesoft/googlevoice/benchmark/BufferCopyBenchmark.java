@@ -0,0 +1,76 @@
+package com.aimesoft.googlevoice.benchmark;
+
+import com.aimesoft.googlevoice.audio.AudioBufferPool;
+import com.aimesoft.googlevoice.audio.AudioRingBuffer;
+import com.aimesoft.googlevoice.audio.CarryOverBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies one chunk goes through between {@code AudioRecord} and the network send.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BufferCopyBenchmark {
+    private ByteBuffer direct;
+    private ByteBuffer target;
+    private byte[] heap;
+    private AudioRingBuffer ringBuffer;
+    private CarryOverBuffer carryOver;
+    private AudioBufferPool pool;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = PcmFixtures.toBytes(PcmFixtures.speech(PcmFixtures.CHUNK_BYTES / 2));
+        direct = PcmFixtures.toDirectBuffer(bytes);
+        target = ByteBuffer.allocateDirect(bytes.length);
+        heap = new byte[bytes.length];
+        ringBuffer = AudioRingBuffer.forDuration(PcmFixtures.SAMPLE_RATE, 1, 5000);
+        carryOver = CarryOverBuffer.forDuration(PcmFixtures.SAMPLE_RATE, 1, 300);
+        pool = new AudioBufferPool(bytes.length, 4);
+    }
+
+    @Benchmark
+    public int ringBufferWriteRead() {
+        direct.rewind();
+        ringBuffer.write(direct);
+        return ringBuffer.read(target, PcmFixtures.CHUNK_BYTES);
+    }
+
+    @Benchmark
+    public int carryOverWrite() {
+        carryOver.write(direct);
+        return carryOver.size();
+    }
+
+    @Benchmark
+    public byte[] copyToHeap() {
+        int position = direct.position();
+        direct.get(heap, 0, heap.length);
+        direct.position(position);
+        return heap;
+    }
+
+    @Benchmark
+    public ByteBuffer poolAcquireRelease() {
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        return buffer;
+    }
+}
@@ -0,0 +1,84 @@
+package com.aimesoft.googlevoice.benchmark;
+
+import com.aimesoft.googlevoice.audio.AudioUtils;
+import com.aimesoft.googlevoice.audio.LevelMeter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level metering of one 300 ms chunk: the original mean absolute implementation against
+ * {@link AudioUtils} and {@link LevelMeter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelBenchmark {
+    private short[] samples;
+    private byte[] bytes;
+    private ByteBuffer direct;
+    private LevelMeter meter;
+
+    @Setup
+    public void setUp() {
+        samples = PcmFixtures.speech(PcmFixtures.CHUNK_BYTES / 2);
+        bytes = PcmFixtures.toBytes(samples);
+        direct = PcmFixtures.toDirectBuffer(bytes);
+        meter = LevelMeter.forDuration(PcmFixtures.SAMPLE_RATE, 1, 100);
+    }
+
+    @Benchmark
+    public float legacyMeanAbsolute() {
+        return legacyCalcRmsLevel(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public float rmsByteArray() {
+        return AudioUtils.calcRmsLevel(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public float rmsDirectBuffer() {
+        return AudioUtils.calcRmsLevel(direct);
+    }
+
+    @Benchmark
+    public float meterDirectBuffer() {
+        meter.process(direct);
+        return meter.rms();
+    }
+
+    @Benchmark
+    public float meterShorts() {
+        meter.process(samples, 0, samples.length);
+        return meter.rms();
+    }
+
+    /**
+     * {@code AudioUtils.calcRmsLevel} before the level meter was introduced.
+     */
+    private static float legacyCalcRmsLevel(byte[] buffer, int offset, int length) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        float samples = length / 2f;
+        float sum = 0f;
+        while (byteBuffer.hasRemaining()) {
+            sum += Math.abs(byteBuffer.getShort()) / samples;
+        }
+        return sum;
+    }
+}
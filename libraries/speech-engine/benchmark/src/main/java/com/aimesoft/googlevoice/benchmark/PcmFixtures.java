@@ -0,0 +1,52 @@
+package com.aimesoft.googlevoice.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic 16 kHz mono PCM with a fixed seed, so every run measures the same audio.
+ */
+final class PcmFixtures {
+    static final int SAMPLE_RATE = 16000;
+    /** Chunk size used by the recognition thread: 300 ms of 16 bit mono audio. */
+    static final int CHUNK_BYTES = 9600;
+
+    private PcmFixtures() {
+    }
+
+    /**
+     * Voiced speech-like signal: a 140 Hz fundamental with a few harmonics, amplitude
+     * modulated at syllable rate, plus low level noise.
+     */
+    static short[] speech(int samples) {
+        Random random = new Random(42);
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t);
+            double voice = Math.sin(2 * Math.PI * 140 * t)
+                    + 0.5 * Math.sin(2 * Math.PI * 280 * t)
+                    + 0.25 * Math.sin(2 * Math.PI * 420 * t);
+            double value = 6000 * envelope * voice + 200 * random.nextGaussian();
+            pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+        return pcm;
+    }
+
+    static byte[] toBytes(short[] pcm) {
+        byte[] bytes = new byte[pcm.length * 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(pcm);
+        return bytes;
+    }
+
+    /**
+     * Direct little endian buffer, like the ones handed out by {@code AudioBufferPool}.
+     */
+    static ByteBuffer toDirectBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+}
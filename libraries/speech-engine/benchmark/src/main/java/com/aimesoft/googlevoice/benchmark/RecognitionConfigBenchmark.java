@@ -0,0 +1,59 @@
+package com.aimesoft.googlevoice.benchmark;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first request of every recognition stream, built the same way as in {@code StreamSession}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecognitionConfigBenchmark {
+    private String language;
+
+    @Setup
+    public void setUp() {
+        language = "ja-JP";
+    }
+
+    @Benchmark
+    public StreamingRecognizeRequest streamingConfigRequest() {
+        RecognitionConfig config = RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+                .setAudioChannelCount(1)
+                .setMaxAlternatives(1)
+                .setLanguageCode(language)
+                .setSampleRateHertz(PcmFixtures.SAMPLE_RATE)
+                .build();
+        StreamingRecognitionConfig streamConfig = StreamingRecognitionConfig.newBuilder()
+                .setInterimResults(true)
+                .setConfig(config)
+                .build();
+        return StreamingRecognizeRequest.newBuilder()
+                .setStreamingConfig(streamConfig)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] streamingConfigRequestSerialized() {
+        return streamingConfigRequest().toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package com.aimesoft.googlevoice.benchmark;
+
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per chunk audio request construction: a new builder with a copied {@link ByteString} as
+ * before, against the reused builder of {@code StreamSession} copying from or wrapping a
+ * pooled direct buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingRequestBenchmark {
+    private byte[] bytes;
+    private ByteBuffer direct;
+    private final StreamingRecognizeRequest.Builder builder = StreamingRecognizeRequest.newBuilder();
+
+    @Setup
+    public void setUp() {
+        bytes = PcmFixtures.toBytes(PcmFixtures.speech(PcmFixtures.CHUNK_BYTES / 2));
+        direct = PcmFixtures.toDirectBuffer(bytes);
+    }
+
+    @Benchmark
+    public StreamingRecognizeRequest newBuilderCopyArray() {
+        return StreamingRecognizeRequest.newBuilder()
+                .setAudioContent(ByteString.copyFrom(bytes, 0, bytes.length))
+                .build();
+    }
+
+    @Benchmark
+    public StreamingRecognizeRequest reusedBuilderCopyDirect() {
+        int position = direct.position();
+        ByteString content = ByteString.copyFrom(direct);
+        direct.position(position);
+        return builder.setAudioContent(content).build();
+    }
+
+    @Benchmark
+    public StreamingRecognizeRequest reusedBuilderWrapDirect() {
+        return builder.setAudioContent(UnsafeByteOperations.unsafeWrap(direct)).build();
+    }
+
+    @Benchmark
+    public int wrapDirectSerializedSize() {
+        return builder.setAudioContent(UnsafeByteOperations.unsafeWrap(direct)).build().getSerializedSize();
+    }
+}
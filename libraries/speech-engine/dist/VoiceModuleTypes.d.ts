@@ -8,10 +8,38 @@ export declare type VoiceModule = {
     getSpeechRecognitionServices: () => Promise<string[]> | void;
     destroySpeech: (callback: Callback) => void;
     startSpeech: Function;
+    /**
+     * Connects and creates the recorder ahead of startSpeech.
+     * @platform android
+     */
+    prepareSpeech: (locale: string, options: object, callback: Callback) => void;
     stopSpeech: (callback: Callback) => void;
     cancelSpeech: (callback: Callback) => void;
     isRecognizing: Function;
     isSpeechAvailable: Function;
+    /**
+     * Sets how many batched volume and partial result frames are sent per second.
+     * @platform android
+     */
+    setEventRate: (rateHz: number) => void;
+    /**
+     * Transcribes stored recordings in the background.
+     * @platform android
+     */
+    transcribeFiles: (paths: string[], options: TranscribeOptions, callback: Callback) => void;
+    cancelTranscription: (callback: Callback) => void;
+    /**
+     * Resolves with the recognition timings of this process.
+     * @platform android
+     */
+    getSpeechMetrics: () => Promise<SpeechMetrics>;
+    resetSpeechMetrics: () => void;
+    /**
+     * Resolves with the sessions left in the audio spool.
+     * @platform android
+     */
+    getSpooledSessions: () => Promise<SpooledSession[]>;
+    deleteSpooledSession: (id: string) => Promise<boolean>;
 } & SpeechEvents & EventSubscriptionVendor;
 export declare type SpeechEvents = {
     onSpeechStart?: (e: SpeechStartEvent) => void;
@@ -21,6 +49,10 @@ export declare type SpeechEvents = {
     onSpeechResults?: (e: SpeechResultsEvent) => void;
     onSpeechPartialResults?: (e: SpeechResultsEvent) => void;
     onSpeechVolumeChanged?: (e: SpeechVolumeChangeEvent) => void;
+    onSpeechTranscript?: (e: SpeechTranscriptEvent) => void;
+};
+export declare type NativeSpeechEvents = Required<SpeechEvents> & {
+    onSpeechFrame: (e: SpeechFrameEvent) => void;
 };
 export declare type SpeechStartEvent = {
     error?: boolean;
@@ -30,6 +62,22 @@ export declare type SpeechRecognizedEvent = {
 };
 export declare type SpeechResultsEvent = {
     value?: string[];
+    /** (Android) Partial results: how likely the text is to stay the same, 0 to 1 */
+    stability?: number;
+    /** (Android) Final results: every alternative, most likely first */
+    alternatives?: SpeechAlternative[];
+};
+export declare type SpeechAlternative = {
+    transcript: string;
+    confidence: number;
+    /** Set when the WORD_TIME_OFFSETS option is true */
+    words: SpeechWord[];
+};
+export declare type SpeechWord = {
+    word: string;
+    /** Milliseconds from the start of the session audio */
+    startMillis: number;
+    endMillis: number;
 };
 export declare type SpeechErrorEvent = {
     error?: {
@@ -43,5 +91,89 @@ export declare type SpeechEndEvent = {
 export declare type SpeechVolumeChangeEvent = {
     value?: number;
 };
+export declare type TranscribeOptions = {
+    language?: string;
+    apikey?: string;
+    MAX_CONCURRENCY?: number;
+    MAX_SEGMENT_MILLIS?: number;
+    SPEECH_ENDPOINT?: string;
+};
+export declare type TranscriptionProgressEvent = {
+    index: number;
+    path: string;
+    completed: number;
+    total: number;
+};
+export declare type TranscriptionResult = {
+    index: number;
+    path: string;
+    transcript?: string;
+    error?: string;
+};
+export declare type SpooledSession = {
+    id: string;
+    /** Epoch milliseconds */
+    createdAt: number;
+    language?: string;
+    durationMillis: number;
+    /** Raw 16 kHz mono PCM files not covered by final results, in order */
+    segments: string[];
+};
+export declare type RecoveredSession = {
+    id: string;
+    createdAt: number;
+    transcript: string;
+    /** Set when a segment could not be transcribed, the session is then kept in the spool */
+    error?: string;
+};
+export declare type LatencySummary = {
+    count: number;
+    min: number;
+    mean: number;
+    p50: number;
+    p90: number;
+    p99: number;
+    max: number;
+};
+export declare type SpeechMetrics = {
+    histograms: {
+        startToFirstAudio: LatencySummary;
+        startToFirstPartial: LatencySummary;
+        startToFirstFinal: LatencySummary;
+        chunkSend: LatencySummary;
+        clientCreation: LatencySummary;
+        rolloverGap: LatencySummary;
+        autoStopLateness: LatencySummary;
+        autoStopIdle: LatencySummary;
+        resultLag: LatencySummary;
+        stopToFinal: LatencySummary;
+        captureToFinal: LatencySummary;
+    };
+    counters: {
+        sessions: number;
+        streams: number;
+        droppedSamples: number;
+        captureOverruns: number;
+        recorderOverruns: number;
+        autoStopRearms: number;
+        reconnects: number;
+        promotedFinals: number;
+    };
+};
+/**
+ * Replace the transcript from `offset` to its end, `removed` chars, with `inserted`
+ */
+export declare type SpeechTranscriptEvent = {
+    offset: number;
+    removed: number;
+    inserted: string;
+};
+export declare type SpeechFrameEvent = {
+    volume?: number;
+    partial?: string[];
+    stability?: number;
+    transcript?: SpeechTranscriptEvent;
+    recognized?: number;
+};
 export {};
 //# sourceMappingURL=VoiceModuleTypes.d.ts.map
\ No newline at end of file
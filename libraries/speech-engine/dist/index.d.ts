@@ -1,10 +1,10 @@
-import { SpeechEndEvent, SpeechErrorEvent, SpeechEvents, SpeechRecognizedEvent, SpeechResultsEvent, SpeechStartEvent, SpeechVolumeChangeEvent } from './VoiceModuleTypes';
+import { LatencySummary, NativeSpeechEvents, RecoveredSession, SpeechAlternative, SpeechEndEvent, SpeechErrorEvent, SpeechEvents, SpeechFrameEvent, SpeechMetrics, SpeechRecognizedEvent, SpeechResultsEvent, SpeechStartEvent, SpeechTranscriptEvent, SpeechVolumeChangeEvent, SpeechWord, SpooledSession, TranscribeOptions, TranscriptionProgressEvent, TranscriptionResult } from './VoiceModuleTypes';
 declare class RCTVoice {
     _loaded: boolean;
     _listeners: any[] | null;
     _events: Required<SpeechEvents>;
     _eventStacks: Required<SpeechEvents>[];
-    _nativeEvents: Required<SpeechEvents>;
+    _nativeEvents: NativeSpeechEvents;
     constructor();
     useEffect(): () => void;
     removeAllListeners(): void;
@@ -13,10 +13,51 @@ declare class RCTVoice {
     stop(): Promise<void>;
     cancel(): Promise<void>;
     isAvailable(): Promise<0 | 1>;
+    /**
+     * (Android) Connect to the service and create the recorder ahead of time, so that a following start() with the
+     * same options begins streaming right away
+     * */
+    prepare(locale: any, options?: {}): Promise<void>;
     /**
      * (Android) Get a list of the speech recognition engines available on the device
      * */
     getSpeechRecognitionServices(): void | Promise<string[]>;
+    /**
+     * (Android) Set how many batched volume and partial result frames are sent per second, 0 (the default) sends every event
+     * */
+    setEventRate(rateHz: number): void;
+    /**
+     * (Android) Transcribe stored recordings, `.wav` or raw 16 kHz mono PCM. Long files are split at silences and
+     * recognized concurrently. Resolves with one result per path, in order, once every file is done
+     * */
+    transcribeFiles(paths: string[], options?: TranscribeOptions, onProgress?: (e: TranscriptionProgressEvent) => void): Promise<TranscriptionResult[]>;
+    /**
+     * (Android) Stop the running transcribeFiles(), which then resolves with the files done so far
+     * */
+    cancelTranscription(): Promise<void>;
+    /**
+     * (Android) Get time to first audio, partial and final result, chunk send, client creation and rollover gap
+     * histograms in milliseconds, with dropped sample counts
+     * */
+    getSpeechMetrics(): Promise<SpeechMetrics | null>;
+    /**
+     * (Android) Clear the metrics returned by getSpeechMetrics()
+     * */
+    resetSpeechMetrics(): void;
+    /**
+     * (Android) Get the sessions that the SPOOL_ENABLED option left on disk because their stream failed or the app
+     * died, oldest first
+     * */
+    getSpooledSessions(): Promise<SpooledSession[]>;
+    /**
+     * (Android) Delete a session from the audio spool
+     * */
+    deleteSpooledSession(id: string): Promise<boolean>;
+    /**
+     * (Android) Transcribe the audio of every spooled session with transcribeFiles() and delete the sessions that were
+     * fully transcribed. Each session uses its own language unless options.language is set
+     * */
+    recoverSpooledSessions(options?: TranscribeOptions, onProgress?: (e: TranscriptionProgressEvent) => void): Promise<RecoveredSession[]>;
     isRecognizing(): Promise<0 | 1>;
     set onSpeechStart(fn: (e: SpeechStartEvent) => void);
     set onSpeechRecognized(fn: (e: SpeechRecognizedEvent) => void);
@@ -25,8 +66,9 @@ declare class RCTVoice {
     set onSpeechResults(fn: (e: SpeechResultsEvent) => void);
     set onSpeechPartialResults(fn: (e: SpeechResultsEvent) => void);
     set onSpeechVolumeChanged(fn: (e: SpeechVolumeChangeEvent) => void);
+    set onSpeechTranscript(fn: (e: SpeechTranscriptEvent) => void);
 }
-export { SpeechEndEvent, SpeechErrorEvent, SpeechEvents, SpeechStartEvent, SpeechRecognizedEvent, SpeechResultsEvent, SpeechVolumeChangeEvent, };
+export { LatencySummary, RecoveredSession, SpeechAlternative, SpeechEndEvent, SpeechErrorEvent, SpeechEvents, SpeechFrameEvent, SpeechMetrics, SpeechStartEvent, SpeechRecognizedEvent, SpeechResultsEvent, SpeechTranscriptEvent, SpeechVolumeChangeEvent, SpeechWord, SpooledSession, TranscribeOptions, TranscriptionProgressEvent, TranscriptionResult, };
 declare const _default: RCTVoice;
 export default _default;
 //# sourceMappingURL=index.d.ts.map
\ No newline at end of file
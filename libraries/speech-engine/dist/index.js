@@ -1,4 +1,13 @@
 "use strict";
+var __awaiter = (this && this.__awaiter) || function (thisArg, _arguments, P, generator) {
+    function adopt(value) { return value instanceof P ? value : new P(function (resolve) { resolve(value); }); }
+    return new (P || (P = Promise))(function (resolve, reject) {
+        function fulfilled(value) { try { step(generator.next(value)); } catch (e) { reject(e); } }
+        function rejected(value) { try { step(generator["throw"](value)); } catch (e) { reject(e); } }
+        function step(result) { result.done ? resolve(result.value) : adopt(result.value).then(fulfilled, rejected); }
+        step((generator = generator.apply(thisArg, _arguments || [])).next());
+    });
+};
 var __importDefault = (this && this.__importDefault) || function (mod) {
     return (mod && mod.__esModule) ? mod : { "default": mod };
 };
@@ -26,6 +35,8 @@ function emptyEvents() {
         },
         onSpeechVolumeChanged: () => {
         },
+        onSpeechTranscript: () => {
+        },
     };
 }
 class RCTVoice {
@@ -70,6 +81,28 @@ class RCTVoice {
                     this._events.onSpeechVolumeChanged(e);
                 }
             },
+            onSpeechTranscript: e => {
+                if (this._events.onSpeechTranscript) {
+                    this._events.onSpeechTranscript(e);
+                }
+            },
+            onSpeechFrame: e => {
+                if (e.recognized && this._events.onSpeechRecognized) {
+                    this._events.onSpeechRecognized({});
+                }
+                if (e.partial && this._events.onSpeechPartialResults) {
+                    this._events.onSpeechPartialResults({
+                        value: e.partial,
+                        stability: e.stability,
+                    });
+                }
+                if (e.transcript && this._events.onSpeechTranscript) {
+                    this._events.onSpeechTranscript(e.transcript);
+                }
+                if (e.volume !== undefined && this._events.onSpeechVolumeChanged) {
+                    this._events.onSpeechVolumeChanged({ value: e.volume });
+                }
+            },
         };
     }
     useEffect() {
@@ -90,6 +123,7 @@ class RCTVoice {
         Voice.onSpeechResults = undefined;
         Voice.onSpeechPartialResults = undefined;
         Voice.onSpeechVolumeChanged = undefined;
+        Voice.onSpeechTranscript = undefined;
     }
     destroy() {
         if (!this._loaded && !this._listeners) {
@@ -177,6 +211,25 @@ class RCTVoice {
             });
         });
     }
+    /**
+     * (Android) Connect to the service and create the recorder ahead of time, so that a following start() with the
+     * same options begins streaming right away
+     * */
+    prepare(locale, options = {}) {
+        if (react_native_1.Platform.OS !== 'android') {
+            return Promise.resolve();
+        }
+        return new Promise((resolve, reject) => {
+            Voice.prepareSpeech(locale, options, (error) => {
+                if (error) {
+                    reject(new Error(error));
+                }
+                else {
+                    resolve();
+                }
+            });
+        });
+    }
     /**
      * (Android) Get a list of the speech recognition engines available on the device
      * */
@@ -187,6 +240,134 @@ class RCTVoice {
         }
         return Voice.getSpeechRecognitionServices();
     }
+    /**
+     * (Android) Set how many batched volume and partial result frames are sent per second, 0 (the default) sends every event
+     * */
+    setEventRate(rateHz) {
+        if (react_native_1.Platform.OS === 'android') {
+            Voice.setEventRate(rateHz);
+        }
+    }
+    /**
+     * (Android) Transcribe stored recordings, `.wav` or raw 16 kHz mono PCM. Long files are split at silences and
+     * recognized concurrently. Resolves with one result per path, in order, once every file is done
+     * */
+    transcribeFiles(paths, options = {}, onProgress) {
+        const emitter = voiceEmitter;
+        if (react_native_1.Platform.OS !== 'android' || emitter === null) {
+            return Promise.reject(new Error('Batch transcription is only supported on Android'));
+        }
+        return new Promise((resolve, reject) => {
+            const results = paths.map((path, index) => ({
+                index,
+                path,
+            }));
+            const onResult = (e) => {
+                results[e.index] = e;
+            };
+            const subscriptions = [
+                emitter.addListener('onTranscriptionProgress', (e) => onProgress && onProgress(e)),
+                emitter.addListener('onTranscriptionResult', onResult),
+                emitter.addListener('onTranscriptionError', onResult),
+                emitter.addListener('onTranscriptionEnd', () => {
+                    subscriptions.forEach(subscription => subscription.remove());
+                    resolve(results);
+                }),
+            ];
+            Voice.transcribeFiles(paths, options, (error) => {
+                if (error) {
+                    subscriptions.forEach(subscription => subscription.remove());
+                    reject(new Error(error));
+                }
+            });
+        });
+    }
+    /**
+     * (Android) Stop the running transcribeFiles(), which then resolves with the files done so far
+     * */
+    cancelTranscription() {
+        if (react_native_1.Platform.OS !== 'android') {
+            return Promise.resolve();
+        }
+        return new Promise(resolve => {
+            Voice.cancelTranscription(() => resolve());
+        });
+    }
+    /**
+     * (Android) Get time to first audio, partial and final result, chunk send, client creation and rollover gap
+     * histograms in milliseconds, with dropped sample counts
+     * */
+    getSpeechMetrics() {
+        if (react_native_1.Platform.OS !== 'android') {
+            return Promise.resolve(null);
+        }
+        return Voice.getSpeechMetrics();
+    }
+    /**
+     * (Android) Clear the metrics returned by getSpeechMetrics()
+     * */
+    resetSpeechMetrics() {
+        if (react_native_1.Platform.OS === 'android') {
+            Voice.resetSpeechMetrics();
+        }
+    }
+    /**
+     * (Android) Get the sessions that the SPOOL_ENABLED option left on disk because their stream failed or the app
+     * died, oldest first
+     * */
+    getSpooledSessions() {
+        if (react_native_1.Platform.OS !== 'android') {
+            return Promise.resolve([]);
+        }
+        return Voice.getSpooledSessions();
+    }
+    /**
+     * (Android) Delete a session from the audio spool
+     * */
+    deleteSpooledSession(id) {
+        if (react_native_1.Platform.OS !== 'android') {
+            return Promise.resolve(false);
+        }
+        return Voice.deleteSpooledSession(id);
+    }
+    /**
+     * (Android) Transcribe the audio of every spooled session with transcribeFiles() and delete the sessions that were
+     * fully transcribed. Each session uses its own language unless options.language is set
+     * */
+    recoverSpooledSessions(options = {}, onProgress) {
+        return __awaiter(this, void 0, void 0, function* () {
+            const sessions = yield this.getSpooledSessions();
+            const byLanguage = new Map();
+            sessions.forEach(session => {
+                const language = options.language || session.language;
+                byLanguage.set(language, (byLanguage.get(language) || []).concat(session));
+            });
+            const recovered = new Map();
+            for (const [language, group] of byLanguage) {
+                const paths = [].concat(...group.map(s => s.segments));
+                const results = yield this.transcribeFiles(paths, Object.assign({}, options, { language }), onProgress);
+                let index = 0;
+                for (const session of group) {
+                    const segments = results.slice(index, index + session.segments.length);
+                    index += session.segments.length;
+                    const failed = segments.find(r => r.error || r.transcript === undefined);
+                    recovered.set(session.id, {
+                        id: session.id,
+                        createdAt: session.createdAt,
+                        transcript: segments
+                            .map(r => r.transcript || '')
+                            .filter(t => t.length > 0)
+                            .join(' '),
+                        error: failed ? failed.error || 'Transcription canceled' : undefined,
+                    });
+                    if (!failed) {
+                        yield this.deleteSpooledSession(session.id);
+                    }
+                }
+            }
+            return sessions.map(session => recovered.get(session.id));
+        });
+    }
     isRecognizing() {
         return new Promise(resolve => {
             Voice.isRecognizing((isRecognizing) => resolve(isRecognizing));
@@ -213,5 +394,8 @@ class RCTVoice {
     set onSpeechVolumeChanged(fn) {
         this._events.onSpeechVolumeChanged = fn;
     }
+    set onSpeechTranscript(fn) {
+        this._events.onSpeechTranscript = fn;
+    }
 }
 exports.default = new RCTVoice();
@@ -6,13 +6,25 @@ import {
 } from 'react-native';
 import invariant from 'invariant';
 import {
+  LatencySummary,
+  NativeSpeechEvents,
+  RecoveredSession,
+  SpeechAlternative,
   SpeechEndEvent,
   SpeechErrorEvent,
   SpeechEvents,
+  SpeechFrameEvent,
+  SpeechMetrics,
   SpeechRecognizedEvent,
   SpeechResultsEvent,
   SpeechStartEvent,
+  SpeechTranscriptEvent,
   SpeechVolumeChangeEvent,
+  SpeechWord,
+  SpooledSession,
+  TranscribeOptions,
+  TranscriptionProgressEvent,
+  TranscriptionResult,
   VoiceModule,
 } from './VoiceModuleTypes';
 
@@ -23,7 +35,7 @@ const voiceEmitter =
   Platform.OS !== 'web'
     ? new NativeEventEmitter((Voice as unknown) as NativeModule)
     : null;
-type SpeechEvent = keyof SpeechEvents;
+type SpeechEvent = keyof NativeSpeechEvents;
 
 function emptyEvents(): Required<SpeechEvents> {
   return {
@@ -41,6 +53,8 @@ function emptyEvents(): Required<SpeechEvents> {
     },
     onSpeechVolumeChanged: () => {
     },
+    onSpeechTranscript: () => {
+    },
   };
 }
 
@@ -49,7 +63,7 @@ class RCTVoice {
   _listeners: any[] | null;
   _events: Required<SpeechEvents>;
   _eventStacks: Required<SpeechEvents>[];
-  _nativeEvents: Required<SpeechEvents>;
+  _nativeEvents: NativeSpeechEvents;
 
   constructor() {
     this._loaded = false;
@@ -92,6 +106,28 @@ class RCTVoice {
           this._events.onSpeechVolumeChanged(e);
         }
       },
+      onSpeechTranscript: e => {
+        if (this._events.onSpeechTranscript) {
+          this._events.onSpeechTranscript(e);
+        }
+      },
+      onSpeechFrame: e => {
+        if (e.recognized && this._events.onSpeechRecognized) {
+          this._events.onSpeechRecognized({});
+        }
+        if (e.partial && this._events.onSpeechPartialResults) {
+          this._events.onSpeechPartialResults({
+            value: e.partial,
+            stability: e.stability,
+          });
+        }
+        if (e.transcript && this._events.onSpeechTranscript) {
+          this._events.onSpeechTranscript(e.transcript);
+        }
+        if (e.volume !== undefined && this._events.onSpeechVolumeChanged) {
+          this._events.onSpeechVolumeChanged({value: e.volume});
+        }
+      },
     };
   }
 
@@ -114,6 +150,7 @@ class RCTVoice {
     Voice.onSpeechResults = undefined;
     Voice.onSpeechPartialResults = undefined;
     Voice.onSpeechVolumeChanged = undefined;
+    Voice.onSpeechTranscript = undefined;
   }
 
   destroy() {
@@ -212,6 +249,25 @@ class RCTVoice {
     });
   }
 
+  /**
+   * (Android) Connect to the service and create the recorder ahead of time, so that a following start() with the
+   * same options begins streaming right away
+   * */
+  prepare(locale: any, options = {}) {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve();
+    }
+    return new Promise<void>((resolve, reject) => {
+      Voice.prepareSpeech(locale, options, (error: string) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          resolve();
+        }
+      });
+    });
+  }
+
   /**
    * (Android) Get a list of the speech recognition engines available on the device
    * */
@@ -227,6 +283,156 @@ class RCTVoice {
     return Voice.getSpeechRecognitionServices();
   }
 
+  /**
+   * (Android) Set how many batched volume and partial result frames are sent per second, 0 (the default) sends every event
+   * */
+  setEventRate(rateHz: number) {
+    if (Platform.OS === 'android') {
+      Voice.setEventRate(rateHz);
+    }
+  }
+
+  /**
+   * (Android) Transcribe stored recordings, `.wav` or raw 16 kHz mono PCM. Long files are split at silences and
+   * recognized concurrently. Resolves with one result per path, in order, once every file is done
+   * */
+  transcribeFiles(
+    paths: string[],
+    options: TranscribeOptions = {},
+    onProgress?: (e: TranscriptionProgressEvent) => void,
+  ): Promise<TranscriptionResult[]> {
+    const emitter = voiceEmitter;
+    if (Platform.OS !== 'android' || emitter === null) {
+      return Promise.reject(
+        new Error('Batch transcription is only supported on Android'),
+      );
+    }
+    return new Promise<TranscriptionResult[]>((resolve, reject) => {
+      const results: TranscriptionResult[] = paths.map((path, index) => ({
+        index,
+        path,
+      }));
+      const onResult = (e: TranscriptionResult) => {
+        results[e.index] = e;
+      };
+      const subscriptions = [
+        emitter.addListener(
+          'onTranscriptionProgress',
+          (e: TranscriptionProgressEvent) => onProgress && onProgress(e),
+        ),
+        emitter.addListener('onTranscriptionResult', onResult),
+        emitter.addListener('onTranscriptionError', onResult),
+        emitter.addListener('onTranscriptionEnd', () => {
+          subscriptions.forEach(subscription => subscription.remove());
+          resolve(results);
+        }),
+      ];
+      Voice.transcribeFiles(paths, options, (error: string) => {
+        if (error) {
+          subscriptions.forEach(subscription => subscription.remove());
+          reject(new Error(error));
+        }
+      });
+    });
+  }
+
+  /**
+   * (Android) Stop the running transcribeFiles(), which then resolves with the files done so far
+   * */
+  cancelTranscription() {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve();
+    }
+    return new Promise<void>(resolve => {
+      Voice.cancelTranscription(() => resolve());
+    });
+  }
+
+  /**
+   * (Android) Get time to first audio, partial and final result, chunk send, client creation and rollover gap
+   * histograms in milliseconds, with dropped sample counts
+   * */
+  getSpeechMetrics(): Promise<SpeechMetrics | null> {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(null);
+    }
+    return Voice.getSpeechMetrics();
+  }
+
+  /**
+   * (Android) Clear the metrics returned by getSpeechMetrics()
+   * */
+  resetSpeechMetrics() {
+    if (Platform.OS === 'android') {
+      Voice.resetSpeechMetrics();
+    }
+  }
+
+  /**
+   * (Android) Get the sessions that the SPOOL_ENABLED option left on disk because their stream failed or the app
+   * died, oldest first
+   * */
+  getSpooledSessions(): Promise<SpooledSession[]> {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve([]);
+    }
+    return Voice.getSpooledSessions();
+  }
+
+  /**
+   * (Android) Delete a session from the audio spool
+   * */
+  deleteSpooledSession(id: string): Promise<boolean> {
+    if (Platform.OS !== 'android') {
+      return Promise.resolve(false);
+    }
+    return Voice.deleteSpooledSession(id);
+  }
+
+  /**
+   * (Android) Transcribe the audio of every spooled session with transcribeFiles() and delete the sessions that were
+   * fully transcribed. Each session uses its own language unless options.language is set
+   * */
+  async recoverSpooledSessions(
+    options: TranscribeOptions = {},
+    onProgress?: (e: TranscriptionProgressEvent) => void,
+  ): Promise<RecoveredSession[]> {
+    const sessions = await this.getSpooledSessions();
+    const byLanguage = new Map<string | undefined, SpooledSession[]>();
+    sessions.forEach(session => {
+      const language = options.language || session.language;
+      byLanguage.set(language, (byLanguage.get(language) || []).concat(session));
+    });
+    const recovered = new Map<string, RecoveredSession>();
+    for (const [language, group] of byLanguage) {
+      const paths = ([] as string[]).concat(...group.map(s => s.segments));
+      const results = await this.transcribeFiles(
+        paths,
+        Object.assign({}, options, {language}),
+        onProgress,
+      );
+      let index = 0;
+      for (const session of group) {
+        const segments = results.slice(index, index + session.segments.length);
+        index += session.segments.length;
+        const failed = segments.find(r => r.error || r.transcript === undefined);
+        recovered.set(session.id, {
+          id: session.id,
+          createdAt: session.createdAt,
+          transcript: segments
+            .map(r => r.transcript || '')
+            .filter(t => t.length > 0)
+            .join(' '),
+          error: failed ? failed.error || 'Transcription canceled' : undefined,
+        });
+        if (!failed) {
+          await this.deleteSpooledSession(session.id);
+        }
+      }
+    }
+    return sessions.map(session => recovered.get(session.id)!);
+  }
+
   isRecognizing(): Promise<0 | 1> {
     return new Promise(resolve => {
       Voice.isRecognizing((isRecognizing: 0 | 1) => resolve(isRecognizing));
@@ -260,15 +466,30 @@ class RCTVoice {
   set onSpeechVolumeChanged(fn: (e: SpeechVolumeChangeEvent) => void) {
     this._events.onSpeechVolumeChanged = fn;
   }
+
+  set onSpeechTranscript(fn: (e: SpeechTranscriptEvent) => void) {
+    this._events.onSpeechTranscript = fn;
+  }
 }
 
 export {
+  LatencySummary,
+  RecoveredSession,
+  SpeechAlternative,
   SpeechEndEvent,
   SpeechErrorEvent,
   SpeechEvents,
+  SpeechFrameEvent,
+  SpeechMetrics,
   SpeechStartEvent,
   SpeechRecognizedEvent,
   SpeechResultsEvent,
+  SpeechTranscriptEvent,
   SpeechVolumeChangeEvent,
+  SpeechWord,
+  SpooledSession,
+  TranscribeOptions,
+  TranscriptionProgressEvent,
+  TranscriptionResult,
 };
 export default new RCTVoice();